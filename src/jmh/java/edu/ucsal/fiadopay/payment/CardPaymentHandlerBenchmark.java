@@ -0,0 +1,36 @@
+package edu.ucsal.fiadopay.payment;
+
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import edu.ucsal.fiadopay.controller.PaymentRequest;
+import edu.ucsal.fiadopay.domain.Payment;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CardPaymentHandlerBenchmark {
+
+    @Param({"1", "3", "12"})
+    int installments;
+
+    private final CardPaymentHandler handler = new CardPaymentHandler();
+    private PaymentRequest req;
+
+    @Setup
+    public void setup() {
+        req = new PaymentRequest("CARD", "BRL", new BigDecimal("1234.56"), installments, "PEDIDO-1");
+    }
+
+    @Benchmark
+    public Payment apply() {
+        var p = new Payment();
+        handler.apply(p, req);
+        return p;
+    }
+}
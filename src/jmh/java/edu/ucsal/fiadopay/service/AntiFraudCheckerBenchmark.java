@@ -0,0 +1,69 @@
+package edu.ucsal.fiadopay.service;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.support.GenericApplicationContext;
+
+import edu.ucsal.fiadopay.controller.PaymentRequest;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AntiFraudCheckerBenchmark {
+
+    @Param({"1", "10"})
+    int rules;
+
+    @Param({"0", "2"})
+    int velocityRules;
+
+    private AntiFraudChecker checker;
+    private ScheduledExecutorService scheduler;
+    private PaymentRequest req;
+
+    @Setup
+    public void setup() throws Exception {
+        var props = new AntiFraudProperties();
+        for (int i = 0; i < rules; i++) {
+            var r = new AntiFraudProperties.Rule();
+            r.setName("Rule" + i);
+            r.setThreshold(BigDecimal.valueOf(1000 + i * 500L));
+            if (i % 2 == 1) r.setMethod("CARD");
+            props.getRules().add(r);
+        }
+        for (int i = 0; i < velocityRules; i++) {
+            var v = new AntiFraudProperties.Velocity();
+            v.setName("Velocity" + i);
+            v.setWindow(Duration.ofSeconds(10));
+            v.setMaxCount(Long.MAX_VALUE);
+            v.setAction("review");
+            props.getVelocity().add(v);
+        }
+        var ctx = new GenericApplicationContext();
+        ctx.refresh();
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        checker = new AntiFraudChecker(props, ctx, new SimpleMeterRegistry(), scheduler, 60_000);
+        checker.afterPropertiesSet();
+        req = new PaymentRequest("PIX", "BRL", new BigDecimal("150.75"), null, null);
+    }
+
+    @TearDown
+    public void tearDown() {
+        checker.destroy();
+        scheduler.shutdownNow();
+    }
+
+    @Benchmark
+    public AntiFraudChecker.Verdict check() {
+        return checker.check(1L, req);
+    }
+}
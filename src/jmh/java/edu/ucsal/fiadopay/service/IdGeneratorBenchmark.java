@@ -0,0 +1,29 @@
+package edu.ucsal.fiadopay.service;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+// run with -t 4 (or more) to see SecureRandom contention in the baseline
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IdGeneratorBenchmark {
+
+    private final IdGenerator ids = new SnowflakeIdGenerator(1);
+
+    // baseline: how payment and event ids were built before IdGenerator
+    @Benchmark
+    public String legacyUuid() {
+        return "pay_" + UUID.randomUUID().toString().substring(0, 8);
+    }
+
+    @Benchmark
+    public String snowflake() {
+        return "pay_" + ids.next();
+    }
+}
@@ -0,0 +1,61 @@
+package edu.ucsal.fiadopay.service;
+
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import edu.ucsal.fiadopay.FiadoPayApplication;
+import edu.ucsal.fiadopay.controller.PaymentRequest;
+import edu.ucsal.fiadopay.controller.PaymentResponse;
+import edu.ucsal.fiadopay.domain.Merchant;
+import edu.ucsal.fiadopay.repo.MerchantRepository;
+
+/** createPayment end to end (auth, anti-fraud, handler, insert) against the in-memory H2 database. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PaymentServiceBenchmark {
+
+    private ConfigurableApplicationContext ctx;
+    private PaymentService service;
+    private String auth;
+    private PaymentRequest req;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        ctx = new SpringApplicationBuilder(FiadoPayApplication.class)
+                .web(WebApplicationType.NONE)
+                .run("--spring.datasource.url=jdbc:h2:mem:bench;MODE=PostgreSQL;DB_CLOSE_DELAY=-1",
+                        "--spring.jpa.show-sql=false",
+                        "--logging.level.root=WARN",
+                        // keep settlement out of the measurement
+                        "--fiadopay.processing-delay-ms=3600000");
+        service = ctx.getBean(PaymentService.class);
+        var merchant = ctx.getBean(MerchantRepository.class).save(Merchant.builder()
+                .name("bench")
+                .clientId("bench-client")
+                .clientSecret("bench-secret")
+                .status(Merchant.Status.ACTIVE)
+                .build());
+        auth = "Bearer FAKE-" + merchant.getId();
+        req = new PaymentRequest("CARD", "BRL", new BigDecimal("150.75"), 3, "PEDIDO-1");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        ctx.close();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public PaymentResponse createPayment() {
+        return service.createPayment(auth, null, req);
+    }
+}
@@ -0,0 +1,45 @@
+package edu.ucsal.fiadopay.service;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/** Run with {@code -prof gc} to compare gc.alloc.rate.norm (bytes allocated per event). */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WebhookEventSerializationBenchmark {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final Instant occurredAt = Instant.parse("2025-11-21T23:12:48.789Z");
+    private final WebhookEventWriter writer = new WebhookEventWriter(objectMapper);
+
+    // baseline: Map.of event -> String (then getBytes to sign and again to publish)
+    @Benchmark
+    public byte[] mapEvent() throws Exception {
+        var data = Map.of(
+                "paymentId", "pay_1a2b3c4d",
+                "status", "APPROVED",
+                "occurredAt", occurredAt.toString()
+        );
+        var event = Map.of(
+                "id", "evt_1a2b3c4d",
+                "type", "payment.updated",
+                "data", data
+        );
+        return objectMapper.writeValueAsString(event).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public byte[] writer() {
+        return writer.paymentEvent("evt_1a2b3c4d", "payment.updated", "pay_1a2b3c4d", "APPROVED", occurredAt);
+    }
+}
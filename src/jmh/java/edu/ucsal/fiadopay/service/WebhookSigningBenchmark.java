@@ -0,0 +1,35 @@
+package edu.ucsal.fiadopay.service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WebhookSigningBenchmark {
+
+    static final String PAYLOAD = "{\"id\":\"evt_1a2b3c4d\",\"type\":\"payment.updated\",\"data\":{"
+            + "\"paymentId\":\"pay_1a2b3c4d\",\"status\":\"APPROVED\",\"occurredAt\":\"2025-11-21T23:12:48.789Z\"}}";
+    static final byte[] PAYLOAD_BYTES = PAYLOAD.getBytes(StandardCharsets.UTF_8);
+
+    private final WebhookSigner signer = new WebhookSigner("ucsal-2025");
+
+    // baseline: what PaymentService.hmac did per event before WebhookSigner
+    @Benchmark
+    public String legacyHmac() throws Exception {
+        var mac = javax.crypto.Mac.getInstance("HmacSHA256");
+        mac.init(new javax.crypto.spec.SecretKeySpec("ucsal-2025".getBytes(), "HmacSHA256"));
+        return Base64.getEncoder().encodeToString(mac.doFinal(PAYLOAD.getBytes()));
+    }
+
+    @Benchmark
+    public WebhookSigner.Signature signer() {
+        return signer.sign((MerchantSnapshot) null, PAYLOAD_BYTES);
+    }
+}
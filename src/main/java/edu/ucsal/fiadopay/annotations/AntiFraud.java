@@ -12,4 +12,7 @@ import java.lang.annotation.Target;
 public @interface AntiFraud {
     String name();
     double threshold() default 1000.0; // default threshold in currency units
+    String action() default "block"; // block, warn, review
+    String method() default "";      // empty = any method
+    String currency() default "";    // empty = any currency
 }
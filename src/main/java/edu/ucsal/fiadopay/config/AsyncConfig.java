@@ -4,14 +4,21 @@ import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
 @Configuration
 public class AsyncConfig {
 
+    public enum ExecutorMode { PLATFORM, VIRTUAL }
+
     @Bean(destroyMethod = "shutdown")
-    public ExecutorService fiadoExecutor() {
+    public ExecutorService fiadoExecutor(@Value("${fiadopay.executor.mode:platform}") String mode) {
+        if (ExecutorMode.valueOf(mode.trim().toUpperCase()) == ExecutorMode.VIRTUAL) {
+            // one virtual thread per task; blocking stages are bounded by StageLimiter instead of pool size
+            return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("fiado-vexec-", 0).factory());
+        }
         int threads = Math.max(2, Runtime.getRuntime().availableProcessors());
         return Executors.newFixedThreadPool(threads, r -> {
             Thread t = new Thread(r);
@@ -0,0 +1,108 @@
+package edu.ucsal.fiadopay.config;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import edu.ucsal.fiadopay.service.AntiFraudChecker;
+import edu.ucsal.fiadopay.service.IdempotencyCache;
+import edu.ucsal.fiadopay.service.MerchantCache;
+import edu.ucsal.fiadopay.service.PaymentEventBus;
+import edu.ucsal.fiadopay.service.SettlementScheduler;
+import edu.ucsal.fiadopay.service.WebhookDeliveryCircuitCircuitBreaker;
+import edu.ucsal.fiadopay.service.WebhookDispatcher;
+import edu.ucsal.fiadopay.service.WebhookOutboxRelay;
+import edu.ucsal.fiadopay.service.WebhookTargetScheduler;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+
+/**
+ * Gauges over the queues and backlogs that already keep their own counts; they are only read
+ * when the registry is scraped. Timers live next to the code they measure
+ * ({@code PipelineMetrics}, {@code DeliveryMetrics}).
+ */
+@Configuration
+public class MetricsConfig {
+
+    @Bean
+    public MeterBinder fiadoExecutorMetrics(ExecutorService fiadoExecutor, ScheduledExecutorService fiadoScheduler) {
+        // queue depth, active and completed tasks; the virtual-thread executor has no pool or queue to
+        // report, its backlog is the tasks waiting on StageLimiter permits (fiadopay.stage.waiting)
+        return registry -> {
+            if (fiadoExecutor instanceof ThreadPoolExecutor) {
+                new ExecutorServiceMetrics(fiadoExecutor, "fiadoExecutor", Tags.empty()).bindTo(registry);
+            }
+            new ExecutorServiceMetrics(fiadoScheduler, "fiadoScheduler", Tags.empty()).bindTo(registry);
+        };
+    }
+
+    @Bean
+    public MeterBinder fiadoPipelineMetrics(SettlementScheduler settlementScheduler,
+                                            WebhookOutboxRelay outboxRelay,
+                                            WebhookTargetScheduler targetScheduler,
+                                            WebhookDispatcher dispatcher,
+                                            WebhookDeliveryCircuitCircuitBreaker circuitBreaker,
+                                            StageLimiter stageLimiter,
+                                            PaymentEventBus eventBus) {
+        return registry -> {
+            Gauge.builder("fiadopay.events.subscribers", eventBus, PaymentEventBus::getSubscribers)
+                    .description("Open payment status streams").register(registry);
+            FunctionCounter.builder("fiadopay.events.dropped", eventBus, PaymentEventBus::getDropped)
+                    .description("Status events dropped because a subscriber fell behind").register(registry);
+            Gauge.builder("fiadopay.settlement.backlog", settlementScheduler, SettlementScheduler::getBacklog)
+                    .description("Payments waiting for settlement").register(registry);
+            Gauge.builder("fiadopay.webhook.outbox.in.flight", outboxRelay, WebhookOutboxRelay::getInFlight)
+                    .description("Claimed deliveries not yet finished").register(registry);
+            Gauge.builder("fiadopay.webhook.target.queued", targetScheduler, WebhookTargetScheduler::getQueued)
+                    .description("Deliveries waiting in per-target bulkheads").register(registry);
+            Gauge.builder("fiadopay.webhook.dispatcher.in.flight", dispatcher, WebhookDispatcher::getInFlight)
+                    .description("HTTP requests in flight").register(registry);
+            Gauge.builder("fiadopay.webhook.circuit.parked", circuitBreaker, WebhookDeliveryCircuitCircuitBreaker::getParked)
+                    .description("Deliveries parked behind an open circuit").register(registry);
+            for (var stage : StageLimiter.Stage.values()) {
+                Gauge.builder("fiadopay.stage.available", stageLimiter, l -> l.available(stage))
+                        .tag("stage", stage.name().toLowerCase())
+                        .description("Free permits of a blocking stage").register(registry);
+                Gauge.builder("fiadopay.stage.waiting", stageLimiter, l -> l.waiting(stage))
+                        .tag("stage", stage.name().toLowerCase())
+                        .description("Tasks waiting for a permit of a blocking stage").register(registry);
+            }
+        };
+    }
+
+    @Bean
+    public MeterBinder fiadoAntiFraudMetrics(AntiFraudChecker antiFraudChecker) {
+        return registry -> {
+            Gauge.builder("fiadopay.antifraud.version", antiFraudChecker, AntiFraudChecker::getVersion)
+                    .description("Version of the live anti-fraud rule set").register(registry);
+            FunctionCounter.builder("fiadopay.antifraud.shadow.diverged", antiFraudChecker, AntiFraudChecker::getShadowDiverged)
+                    .description("Checks where the shadow rule set disagreed with the live one").register(registry);
+        };
+    }
+
+    @Bean
+    public MeterBinder fiadoCacheMetrics(MerchantCache merchantCache, IdempotencyCache idempotencyCache) {
+        return registry -> {
+            Gauge.builder("fiadopay.cache.size", merchantCache, MerchantCache::getSize)
+                    .tag("cache", "merchant").register(registry);
+            FunctionCounter.builder("fiadopay.cache.requests", merchantCache, MerchantCache::getHits)
+                    .tags("cache", "merchant", "result", "hit").register(registry);
+            FunctionCounter.builder("fiadopay.cache.requests", merchantCache, MerchantCache::getMisses)
+                    .tags("cache", "merchant", "result", "miss").register(registry);
+            FunctionCounter.builder("fiadopay.cache.evictions", merchantCache, MerchantCache::getEvictions)
+                    .tag("cache", "merchant").register(registry);
+            Gauge.builder("fiadopay.cache.size", idempotencyCache, IdempotencyCache::getSize)
+                    .tag("cache", "idempotency").register(registry);
+            FunctionCounter.builder("fiadopay.cache.requests", idempotencyCache, IdempotencyCache::getHits)
+                    .tags("cache", "idempotency", "result", "hit").register(registry);
+            FunctionCounter.builder("fiadopay.cache.requests", idempotencyCache, IdempotencyCache::getMisses)
+                    .tags("cache", "idempotency", "result", "miss").register(registry);
+        };
+    }
+}
@@ -0,0 +1,36 @@
+package edu.ucsal.fiadopay.config;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * Extra databases for the payment table. Shard 0 is always {@code spring.datasource}; each entry
+ * here adds one more, so an empty list means a single, unsharded store.
+ */
+@Component
+@ConfigurationProperties(prefix = "fiadopay.sharding")
+public class ShardingProperties {
+    public static class Shard {
+        private String url;
+        private String username = "sa";
+        private String password = "";
+        private int maxPoolSize = 10;
+
+        public String getUrl() { return url; }
+        public void setUrl(String url) { this.url = url; }
+        public String getUsername() { return username; }
+        public void setUsername(String username) { this.username = username; }
+        public String getPassword() { return password; }
+        public void setPassword(String password) { this.password = password; }
+        public int getMaxPoolSize() { return maxPoolSize; }
+        public void setMaxPoolSize(int maxPoolSize) { this.maxPoolSize = maxPoolSize; }
+    }
+
+    private List<Shard> shards = new ArrayList<>();
+
+    public List<Shard> getShards() { return shards; }
+    public void setShards(List<Shard> shards) { this.shards = shards; }
+}
@@ -0,0 +1,46 @@
+package edu.ucsal.fiadopay.config;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.function.Supplier;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * One semaphore per pipeline stage. Tasks may be in flight by the thousands (virtual threads),
+ * but only this many of them hold a JDBC connection for a given stage at the same time.
+ */
+@Component
+public class StageLimiter {
+
+    public enum Stage { PROCESSING, WEBHOOK }
+
+    private final Map<Stage, Semaphore> permits = new EnumMap<>(Stage.class);
+
+    public StageLimiter(@Value("${fiadopay.executor.limits.processing:6}") int processing,
+                        @Value("${fiadopay.executor.limits.webhook:4}") int webhook) {
+        permits.put(Stage.PROCESSING, new Semaphore(processing));
+        permits.put(Stage.WEBHOOK, new Semaphore(webhook));
+    }
+
+    public void run(Stage stage, Runnable task) {
+        call(stage, () -> { task.run(); return null; });
+    }
+
+    public <T> T call(Stage stage, Supplier<T> task) {
+        var s = permits.get(stage);
+        s.acquireUninterruptibly();
+        try {
+            return task.get();
+        } finally {
+            s.release();
+        }
+    }
+
+    public int available(Stage stage) { return permits.get(stage).availablePermits(); }
+
+    /** Tasks blocked in {@link #call} for this stage; an estimate, as the semaphore reports it. */
+    public int waiting(Stage stage) { return permits.get(stage).getQueueLength(); }
+}
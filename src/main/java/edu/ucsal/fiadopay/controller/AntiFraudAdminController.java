@@ -0,0 +1,97 @@
+package edu.ucsal.fiadopay.controller;
+
+import edu.ucsal.fiadopay.service.AntiFraudChecker;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.*;
+import lombok.RequiredArgsConstructor;
+
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.media.Content;
+import io.swagger.v3.oas.annotations.media.ExampleObject;
+import io.swagger.v3.oas.annotations.tags.Tag;
+
+import java.util.List;
+import java.util.Map;
+
+@RestController
+@RequestMapping("/fiadopay/admin/antifraud")
+@RequiredArgsConstructor
+@Tag(name = "AntiFraud Admin", description = "Regras anti-fraude em tempo de execução")
+public class AntiFraudAdminController {
+
+    private static final String RULES_EXAMPLE = """
+            {
+              "rules": [
+                { "name": "HighAmount", "threshold": 800.00, "action": "block" },
+                { "name": "PixHigh", "threshold": 500.00, "method": "PIX", "action": "review" }
+              ],
+              "velocity": [
+                { "name": "BurstPerMerchant", "window": "1m", "max-count": 100, "action": "block" }
+              ]
+            }
+            """;
+
+    private final AntiFraudChecker checker;
+
+    @Operation(summary = "Regras em vigor",
+            description = "Versão, origem e regras compiladas (thresholds em ordem crescente) do conjunto ativo.")
+    @GetMapping("/rules")
+    public Map<String, Object> rules() {
+        return checker.describeLive();
+    }
+
+    @Operation(summary = "Substituir regras",
+            description = "Compila o conjunto enviado (JSON ou YAML, mesmo formato de fiadopay.antifraud) e troca "
+                    + "atomicamente o conjunto ativo, gerando uma nova versão. Regras @AntiFraud continuam valendo "
+                    + "quando não sobrescritas por nome.")
+    @PutMapping("/rules")
+    public Map<String, Object> replace(
+            @io.swagger.v3.oas.annotations.parameters.RequestBody(required = true,
+                    content = @Content(examples = @ExampleObject(value = RULES_EXAMPLE)))
+            @RequestBody byte[] body) {
+        return checker.apply(AntiFraudChecker.parse(body), "admin");
+    }
+
+    @Operation(summary = "Versões recentes", description = "Últimas versões aplicadas, da mais antiga à mais recente.")
+    @GetMapping("/rules/history")
+    public List<Map<String, Object>> history() {
+        return checker.history();
+    }
+
+    @Operation(summary = "Voltar a uma versão", description = "Reaplica as regras de uma versão do histórico como nova versão.")
+    @PostMapping("/rules/rollback/{version}")
+    public Map<String, Object> rollback(@PathVariable long version) {
+        return checker.rollback(version);
+    }
+
+    @Operation(summary = "Relatório do modo sombra",
+            description = "Regras candidatas e quantas avaliações deram ação diferente da do conjunto ativo (ex.: block->allow).")
+    @GetMapping("/shadow")
+    public Map<String, Object> shadow() {
+        return checker.shadowReport();
+    }
+
+    @Operation(summary = "Avaliar regras em modo sombra",
+            description = "Roda o conjunto enviado ao lado do ativo sem bloquear nada, contando divergências. "
+                    + "Substitui um candidato anterior e zera as contagens.")
+    @PutMapping("/shadow")
+    public Map<String, Object> stageShadow(
+            @io.swagger.v3.oas.annotations.parameters.RequestBody(required = true,
+                    content = @Content(examples = @ExampleObject(value = RULES_EXAMPLE)))
+            @RequestBody byte[] body) {
+        return checker.stageShadow(AntiFraudChecker.parse(body), "admin");
+    }
+
+    @Operation(summary = "Promover o candidato", description = "O conjunto em modo sombra vira o ativo, como nova versão.")
+    @PostMapping("/shadow/promote")
+    public Map<String, Object> promote() {
+        return checker.promoteShadow();
+    }
+
+    @Operation(summary = "Descartar o candidato")
+    @DeleteMapping("/shadow")
+    @ResponseStatus(HttpStatus.NO_CONTENT)
+    public void dropShadow() {
+        checker.dropShadow();
+    }
+}
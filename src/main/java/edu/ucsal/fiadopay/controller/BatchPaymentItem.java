@@ -0,0 +1,17 @@
+package edu.ucsal.fiadopay.controller;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import jakarta.validation.Valid;
+import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.Size;
+
+public record BatchPaymentItem(
+
+        @Schema(example = "PEDIDO-123-1")
+        @Size(max = 64)
+        String idempotencyKey,
+
+        @NotNull @Valid
+        PaymentRequest payment
+
+) {}
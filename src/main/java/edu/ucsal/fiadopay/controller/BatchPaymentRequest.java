@@ -0,0 +1,9 @@
+package edu.ucsal.fiadopay.controller;
+
+import jakarta.validation.Valid;
+import jakarta.validation.constraints.NotEmpty;
+import java.util.List;
+
+public record BatchPaymentRequest(
+    @NotEmpty @Valid List<BatchPaymentItem> items
+) {}
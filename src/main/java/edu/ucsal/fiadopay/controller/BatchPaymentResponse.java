@@ -0,0 +1,3 @@
+package edu.ucsal.fiadopay.controller;
+import java.util.List;
+public record BatchPaymentResponse(List<BatchPaymentResult> results) {}
@@ -0,0 +1,4 @@
+package edu.ucsal.fiadopay.controller;
+
+// status segue a semântica HTTP do item: 201 criado, 200 replay idempotente, 4xx erro
+public record BatchPaymentResult(int index, String idempotencyKey, int status, PaymentResponse payment, String error) {}
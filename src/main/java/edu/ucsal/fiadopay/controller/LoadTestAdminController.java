@@ -0,0 +1,40 @@
+package edu.ucsal.fiadopay.controller;
+
+import edu.ucsal.fiadopay.service.LoadTestService;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.*;
+import lombok.RequiredArgsConstructor;
+import jakarta.validation.Valid;
+
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.tags.Tag;
+
+import java.util.Map;
+
+@RestController
+@RequestMapping("/fiadopay/admin/loadtest")
+@RequiredArgsConstructor
+@ConditionalOnProperty(name = "fiadopay.loadtest.enabled", havingValue = "true")
+@Tag(name = "Load Test", description = "Teste de carga embutido (fiadopay.loadtest.enabled=true)")
+public class LoadTestAdminController {
+
+    private final LoadTestService loadTest;
+
+    @Operation(summary = "Iniciar teste de carga",
+            description = "Cria merchants pela API, dispara criações de pagamento (e uma fração de estornos) na taxa "
+                    + "pedida e mede a entrega dos webhooks em /sink/loadtest. Campos omitidos usam fiadopay.loadtest.*.")
+    @PostMapping
+    @ResponseStatus(HttpStatus.ACCEPTED)
+    public Map<String, Object> start(@Valid @RequestBody(required = false) LoadTestRequest req) {
+        return loadTest.start(req != null ? req : new LoadTestRequest(null, null, null, null));
+    }
+
+    @Operation(summary = "Relatório do teste de carga",
+            description = "Vazão e latências p50/p99/p999 das criações, estornos e webhooks (criação → recebimento), "
+                    + "além de duplicatas e assinaturas inválidas, do teste atual ou do último.")
+    @GetMapping
+    public Map<String, Object> report() {
+        return loadTest.report();
+    }
+}
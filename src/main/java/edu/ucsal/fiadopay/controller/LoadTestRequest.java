@@ -0,0 +1,14 @@
+package edu.ucsal.fiadopay.controller;
+
+import jakarta.validation.constraints.DecimalMax;
+import jakarta.validation.constraints.DecimalMin;
+import jakarta.validation.constraints.Max;
+import jakarta.validation.constraints.Min;
+
+// campos nulos usam os padrões de fiadopay.loadtest.*
+public record LoadTestRequest(
+    @Min(1) @Max(100000) Integer rps,
+    @Min(1) @Max(3600) Integer durationSeconds,
+    @Min(1) @Max(1000) Integer merchants,
+    @DecimalMin("0.0") @DecimalMax("1.0") Double refundRatio
+) {}
@@ -2,6 +2,8 @@ package edu.ucsal.fiadopay.controller;
 
 import edu.ucsal.fiadopay.domain.Merchant;
 import edu.ucsal.fiadopay.repo.MerchantRepository;
+import edu.ucsal.fiadopay.service.MerchantCache;
+import edu.ucsal.fiadopay.service.WebhookSigner;
 import org.springframework.http.HttpStatus;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.server.ResponseStatusException;
@@ -16,6 +18,7 @@ import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.responses.ApiResponses;
 import io.swagger.v3.oas.annotations.tags.Tag;
 
+import java.util.Map;
 import java.util.UUID;
 
 @RestController
@@ -25,6 +28,8 @@ import java.util.UUID;
 public class MerchantAdminController {
 
     private final MerchantRepository merchants;
+    private final MerchantCache merchantCache;
+    private final WebhookSigner signer;
 
     @Operation(
             summary = "Criar um novo merchant",
@@ -80,6 +85,59 @@ public class MerchantAdminController {
                 .status(Merchant.Status.ACTIVE)
                 .build();
 
-        return merchants.save(m);
+        var saved = merchants.save(m);
+        merchantCache.invalidate(saved.getId());
+        return saved;
+    }
+
+    @Operation(
+            summary = "Atualizar um merchant",
+            description = "Altera webhookUrl, status (ACTIVE|BLOCKED) e o agrupamento de webhooks "
+                    + "(webhookBatchSize > 1 liga; webhookBatchWindowMs é a espera máxima). "
+                    + "Campos omitidos permanecem inalterados."
+    )
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Merchant atualizado"),
+            @ApiResponse(responseCode = "404", description = "Merchant não encontrado")
+    })
+    @PatchMapping("/{id}")
+    public Merchant update(@PathVariable Long id, @Valid @RequestBody MerchantUpdateDTO dto) {
+        var m = merchants.findById(id)
+                .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND));
+        if (dto.webhookUrl() != null) m.setWebhookUrl(dto.webhookUrl());
+        if (dto.status() != null) m.setStatus(dto.status());
+        if (dto.webhookBatchSize() != null) m.setWebhookBatchSize(dto.webhookBatchSize());
+        if (dto.webhookBatchWindowMs() != null) m.setWebhookBatchWindowMs(dto.webhookBatchWindowMs());
+        var saved = merchants.save(m);
+        merchantCache.invalidate(id);
+        return saved;
+    }
+
+    @Operation(
+            summary = "Rotacionar segredo de webhook do merchant",
+            description = "Gera um novo segredo próprio para assinar os webhooks do merchant. "
+                    + "O header X-Signature-Version passa a indicar a nova versão (m<versão>)."
+    )
+    @PostMapping("/{id}/webhook-secret")
+    public Map<String, Object> rotateWebhookSecret(@PathVariable Long id) {
+        var m = merchants.findById(id)
+                .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND));
+        m.setWebhookSecret(UUID.randomUUID().toString().replace("-", ""));
+        m.setWebhookSecretVersion(m.getWebhookSecretVersion() == null ? 1 : m.getWebhookSecretVersion() + 1);
+        merchants.save(m);
+        merchantCache.invalidate(id);
+        signer.evictMerchant(id);
+        return Map.of("keyId", "m" + m.getWebhookSecretVersion(), "webhookSecret", m.getWebhookSecret());
+    }
+
+    @Operation(summary = "Estatísticas do cache de merchants")
+    @GetMapping("/cache")
+    public Map<String, Object> cacheStats() {
+        return Map.of(
+                "size", merchantCache.getSize(),
+                "hits", merchantCache.getHits(),
+                "misses", merchantCache.getMisses(),
+                "evictions", merchantCache.getEvictions()
+        );
     }
 }
@@ -0,0 +1,15 @@
+package edu.ucsal.fiadopay.controller;
+
+import edu.ucsal.fiadopay.domain.Merchant;
+import jakarta.validation.constraints.Max;
+import jakarta.validation.constraints.Min;
+import jakarta.validation.constraints.Size;
+
+// campos nulos não são alterados
+public record MerchantUpdateDTO(
+    @Size(min = 1) String webhookUrl,
+    Merchant.Status status,
+    // 1 desliga o agrupamento de webhooks
+    @Min(1) @Max(500) Integer webhookBatchSize,
+    @Min(0) @Max(60000) Integer webhookBatchWindowMs
+) {}
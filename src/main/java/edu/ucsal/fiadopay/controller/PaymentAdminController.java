@@ -0,0 +1,43 @@
+package edu.ucsal.fiadopay.controller;
+
+import edu.ucsal.fiadopay.service.PaymentService;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import lombok.RequiredArgsConstructor;
+
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.tags.Tag;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+
+@RestController
+@RequestMapping("/fiadopay/admin/payments")
+@RequiredArgsConstructor
+@Tag(name = "Payment Admin", description = "Consultas administrativas sobre todos os shards de pagamentos")
+public class PaymentAdminController {
+
+    private final PaymentService service;
+
+    @Operation(summary = "Listar pagamentos de todos os merchants",
+            description = "Mais recentes primeiro, com cursor como na listagem do merchant. Sem merchantId a consulta "
+                    + "vai a todos os shards em paralelo e as páginas são intercaladas; com merchantId vai só ao shard dele.")
+    @GetMapping
+    public PaymentPage list(@RequestParam(required = false) Long merchantId,
+                            @RequestParam(required = false) String status,
+                            @RequestParam(required = false) Instant from,
+                            @RequestParam(required = false) Instant to,
+                            @RequestParam(required = false) String cursor,
+                            @RequestParam(defaultValue = "50") int limit) {
+        return service.listAllPayments(merchantId, status, from, to, cursor, limit);
+    }
+
+    @Operation(summary = "Pagamentos por shard", description = "Total e contagem por status em cada shard.")
+    @GetMapping("/shards")
+    public List<Map<String, Object>> shards() {
+        return service.shardStats();
+    }
+}
@@ -1,9 +1,16 @@
 package edu.ucsal.fiadopay.controller;
 
+import edu.ucsal.fiadopay.service.PaymentExporter;
 import edu.ucsal.fiadopay.service.PaymentService;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.*;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.async.WebAsyncUtils;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import lombok.RequiredArgsConstructor;
+import jakarta.servlet.http.HttpServletRequest;
 import jakarta.validation.Valid;
 import io.swagger.v3.oas.annotations.Parameter;
 import io.swagger.v3.oas.annotations.security.SecurityRequirement;
@@ -13,6 +20,8 @@ import io.swagger.v3.oas.annotations.security.SecurityRequirement;
 @RequiredArgsConstructor
 public class PaymentController {
   private final PaymentService service;
+  // exports stream for minutes; every other async request keeps the container default
+  @Value("${fiadopay.export.timeout-ms:1800000}") long exportTimeoutMs;
 
   @PostMapping("/payments")
   @SecurityRequirement(name = "bearerAuth")
@@ -25,15 +34,96 @@ public class PaymentController {
     return ResponseEntity.status(HttpStatus.CREATED).body(resp);
   }
 
+  @PostMapping("/payments:batch")
+  @SecurityRequirement(name = "bearerAuth")
+  public BatchPaymentResponse createBatch(
+      @Parameter(hidden = true) @RequestHeader("Authorization") String auth,
+      @RequestBody @Valid BatchPaymentRequest req
+  ) {
+    return service.createPayments(auth, req.items());
+  }
+
+  @GetMapping("/payments")
+  @SecurityRequirement(name = "bearerAuth")
+  public PaymentPage list(
+      @Parameter(hidden = true) @RequestHeader("Authorization") String auth,
+      @RequestParam(required = false) String status,
+      @RequestParam(required = false) java.time.Instant from,
+      @RequestParam(required = false) java.time.Instant to,
+      @RequestParam(required = false) String cursor,
+      @RequestParam(defaultValue = "50") int limit
+  ) {
+    return service.listPayments(auth, status, from, to, cursor, limit);
+  }
+
+  @GetMapping("/payments:export")
+  @SecurityRequirement(name = "bearerAuth")
+  public ResponseEntity<StreamingResponseBody> export(
+      @Parameter(hidden = true) @RequestHeader("Authorization") String auth,
+      @RequestHeader(value = "Accept-Encoding", required = false) String acceptEncoding,
+      HttpServletRequest request,
+      @RequestParam(defaultValue = "ndjson") String format,
+      @RequestParam(required = false) String status,
+      @RequestParam(required = false) java.time.Instant from,
+      @RequestParam(required = false) java.time.Instant to
+  ) {
+    PaymentExporter.Format fmt;
+    try {
+      fmt = PaymentExporter.Format.parse(format);
+    } catch (IllegalArgumentException e) {
+      throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "format must be ndjson or csv");
+    }
+    var gzip = acceptEncoding != null && acceptEncoding.toLowerCase().contains("gzip");
+    var body = service.exportPayments(auth, status, from, to, fmt, gzip);
+    WebAsyncUtils.getAsyncManager(request).getAsyncWebRequest().setTimeout(exportTimeoutMs);
+    var resp = ResponseEntity.ok()
+        .contentType(MediaType.parseMediaType(fmt.contentType))
+        .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"payments."+fmt.extension+"\"")
+        .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+    if (gzip) resp.header(HttpHeaders.CONTENT_ENCODING, "gzip");
+    return resp.body(body);
+  }
+
+  @GetMapping(value = "/payments:events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+  @SecurityRequirement(name = "bearerAuth")
+  public SseEmitter events(
+      @Parameter(hidden = true) @RequestHeader("Authorization") String auth,
+      @RequestParam(required = false) String paymentId
+  ) {
+    return service.streamStatuses(auth, paymentId);
+  }
+
   @GetMapping("/payments/{id}")
   public PaymentResponse get(@PathVariable String id) {
     return service.getPayment(id);
   }
 
+  @GetMapping("/payments/{id}/refunds")
+  @SecurityRequirement(name = "bearerAuth")
+  public java.util.List<RefundResponse> refunds(
+      @Parameter(hidden = true) @RequestHeader("Authorization") String auth,
+      @PathVariable String id
+  ) {
+    return service.listRefunds(auth, id);
+  }
+
   @PostMapping("/refunds")
   @SecurityRequirement(name = "bearerAuth")
-  public java.util.Map<String,Object> refund(@Parameter(hidden = true) @RequestHeader("Authorization") String auth,
-                                   @RequestBody @Valid RefundRequest body) {
-    return service.refund(auth, body.paymentId());
+  public ResponseEntity<RefundResponse> refund(
+      @Parameter(hidden = true) @RequestHeader("Authorization") String auth,
+      @RequestHeader(value="Idempotency-Key", required=false) String idemKey,
+      @RequestBody @Valid RefundRequest body
+  ) {
+    // accepted, not done: the refund completes asynchronously and is reported by webhook
+    return ResponseEntity.status(HttpStatus.ACCEPTED).body(service.refund(auth, idemKey, body));
+  }
+
+  @GetMapping("/refunds/{id}")
+  @SecurityRequirement(name = "bearerAuth")
+  public RefundResponse getRefund(
+      @Parameter(hidden = true) @RequestHeader("Authorization") String auth,
+      @PathVariable String id
+  ) {
+    return service.getRefund(auth, id);
   }
 }
@@ -0,0 +1,4 @@
+package edu.ucsal.fiadopay.controller;
+import java.util.List;
+/** A page of payments, newest first; pass {@code nextCursor} back as {@code cursor} for the next one (null on the last page). */
+public record PaymentPage(List<PaymentResponse> items, String nextCursor) {}
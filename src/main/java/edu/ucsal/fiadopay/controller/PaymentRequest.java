@@ -11,7 +11,7 @@ public record PaymentRequest(
         String method,
 
         @Schema(example = "BRL")
-        @NotBlank
+        @NotBlank @Size(max = 10)
         String currency,
 
         @Schema(example = "150.75")
@@ -0,0 +1,4 @@
+package edu.ucsal.fiadopay.controller;
+import java.math.BigDecimal;
+import java.time.Instant;
+public record RefundResponse(String id, String paymentId, String status, BigDecimal amount, Instant createdAt, Instant updatedAt) {}
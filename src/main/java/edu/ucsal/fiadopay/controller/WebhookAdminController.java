@@ -0,0 +1,51 @@
+package edu.ucsal.fiadopay.controller;
+
+import edu.ucsal.fiadopay.service.WebhookDeliveryCircuitCircuitBreaker;
+import edu.ucsal.fiadopay.service.WebhookDispatcher;
+import edu.ucsal.fiadopay.service.WebhookTargetScheduler;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import lombok.RequiredArgsConstructor;
+
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.tags.Tag;
+
+import java.util.Map;
+
+@RestController
+@RequestMapping("/fiadopay/admin/webhooks")
+@RequiredArgsConstructor
+@Tag(name = "Webhook Admin", description = "Estado interno da entrega de webhooks")
+public class WebhookAdminController {
+
+    private final WebhookDispatcher dispatcher;
+    private final WebhookDeliveryCircuitCircuitBreaker circuitBreaker;
+    private final WebhookTargetScheduler targetScheduler;
+
+    @Operation(summary = "Ocupação do dispatcher de webhooks",
+            description = "Requisições em andamento, capacidade total e requisições em andamento por host.")
+    @GetMapping("/dispatcher")
+    public Map<String, Object> dispatcher() {
+        return Map.of(
+                "inFlight", dispatcher.getInFlight(),
+                "capacity", dispatcher.getCapacity(),
+                "occupancy", dispatcher.getOccupancy(),
+                "inFlightByHost", dispatcher.getInFlightByHost()
+        );
+    }
+
+    @Operation(summary = "Estado dos circuitos por target",
+            description = "Estado (CLOSED/OPEN/HALF_OPEN), taxa de falhas na janela, entregas estacionadas e cooldown restante.")
+    @GetMapping("/circuits")
+    public Map<String, Map<String, Object>> circuits() {
+        return circuitBreaker.snapshot();
+    }
+
+    @Operation(summary = "Bulkheads por target",
+            description = "Fila, requisições em andamento e tempo médio/último de espera antes do envio, por target.")
+    @GetMapping("/targets")
+    public Map<String, Map<String, Object>> targets() {
+        return targetScheduler.snapshot();
+    }
+}
@@ -1,7 +1,9 @@
 package edu.ucsal.fiadopay.controller;
 
+import edu.ucsal.fiadopay.service.LoadTestService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
@@ -12,11 +14,29 @@ import org.springframework.web.bind.annotation.RestController;
 public class WebhookSinkController {
     private static final Logger log = LoggerFactory.getLogger(WebhookSinkController.class);
 
+    private final ObjectProvider<LoadTestService> loadTest;
+
+    public WebhookSinkController(ObjectProvider<LoadTestService> loadTest) {
+        this.loadTest = loadTest;
+    }
+
     @PostMapping("/sink")
     public ResponseEntity<String> receive(@RequestBody String body,
                                           @RequestHeader(value = "X-Signature", required = false) String signature,
+                                          @RequestHeader(value = "X-Signature-Version", required = false) String signatureVersion,
                                           @RequestHeader(value = "X-Event-Type", required = false) String eventType){
-        log.info("Received webhook sink: eventType={}, signature={}, payload={}", eventType, signature, body);
+        log.info("Received webhook sink: eventType={}, signature={}, signatureVersion={}, payload={}", eventType, signature, signatureVersion, body);
+        return ResponseEntity.ok("ok");
+    }
+
+    // load-test sink: verifies and measures instead of logging every body
+    @PostMapping("/sink/loadtest")
+    public ResponseEntity<String> receiveLoadTest(@RequestBody byte[] body,
+                                                  @RequestHeader(value = "X-Signature", required = false) String signature,
+                                                  @RequestHeader(value = "X-Signature-Version", required = false) String signatureVersion){
+        var recorder = loadTest.getIfAvailable();
+        if (recorder == null) return ResponseEntity.notFound().build();
+        recorder.onWebhook(body, signature, signatureVersion);
         return ResponseEntity.ok("ok");
     }
 }
@@ -20,6 +20,15 @@ public class Merchant {
 
     private String webhookUrl;
 
+    // opcional: quando presente, os webhooks deste merchant são assinados com este segredo
+    @Column(length = 64)
+    private String webhookSecret;
+    private Integer webhookSecretVersion;
+
+    // opcional: agrupa até webhookBatchSize eventos (ou webhookBatchWindowMs de espera) em um único POST
+    private Integer webhookBatchSize;
+    private Integer webhookBatchWindowMs;
+
     @Enumerated(EnumType.STRING)
     private Status status = Status.ACTIVE;
 
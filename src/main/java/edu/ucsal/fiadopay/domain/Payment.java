@@ -2,13 +2,19 @@ package edu.ucsal.fiadopay.domain;
 
 import jakarta.persistence.*;
 import lombok.*;
+import org.hibernate.annotations.ColumnDefault;
 import java.math.BigDecimal;
 import java.time.Instant;
 
 @Entity
 @Data @NoArgsConstructor @AllArgsConstructor @Builder
 @Table(
-    indexes = { @Index(columnList="merchantId"), @Index(columnList="status") },
+    indexes = {
+        @Index(columnList="status"),
+        // keyset pagination of a merchant's payments, newest first (also serves merchantId lookups)
+        @Index(name = "idx_payment_merchant_created", columnList = "merchantId,createdAt,id"),
+        @Index(name = "idx_payment_merchant_status_created", columnList = "merchantId,status,createdAt,id")
+    },
     uniqueConstraints = {
         @UniqueConstraint(name = "uk_payment_merchant_idempotency", columnNames = {"merchantId", "idempotencyKey"})
     }
@@ -38,9 +44,20 @@ public class Payment {
     @Column(nullable = false, precision = 19, scale = 2)
     private BigDecimal totalWithInterest;
 
+    // SUCCEEDED refunds, and PENDING ones still holding their amount; together at most totalWithInterest.
+    // The column default lets the schema update add them to a table that already has rows.
+    @Column(nullable = false, precision = 19, scale = 2)
+    @ColumnDefault("0")
+    @Builder.Default
+    private BigDecimal refundedAmount = BigDecimal.ZERO;
+    @Column(nullable = false, precision = 19, scale = 2)
+    @ColumnDefault("0")
+    @Builder.Default
+    private BigDecimal refundingAmount = BigDecimal.ZERO;
+
     @Enumerated(EnumType.STRING)
     @Column(nullable = false, length = 20)
-    private Status status; // PENDING|APPROVED|DECLINED|EXPIRED|REFUNDED
+    private Status status; // PENDING|APPROVED|DECLINED|EXPIRED|PARTIALLY_REFUNDED|REFUNDED
 
     @Column(nullable = false)
     private Instant createdAt;
@@ -52,5 +69,5 @@ public class Payment {
     @Column(length = 255)
     private String metadataOrderId;
 
-    public enum Status { PENDING, APPROVED, DECLINED, EXPIRED, REFUNDED }
+    public enum Status { PENDING, APPROVED, DECLINED, EXPIRED, PARTIALLY_REFUNDED, REFUNDED }
 }
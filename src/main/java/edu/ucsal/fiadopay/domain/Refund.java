@@ -0,0 +1,45 @@
+package edu.ucsal.fiadopay.domain;
+
+import jakarta.persistence.*;
+import lombok.*;
+import java.math.BigDecimal;
+import java.time.Instant;
+
+@Entity
+@Data @NoArgsConstructor @AllArgsConstructor @Builder
+@Table(
+    indexes = {
+        @Index(name = "idx_refund_payment", columnList = "paymentId,createdAt"),
+        @Index(name = "idx_refund_status", columnList = "status")
+    },
+    uniqueConstraints = {
+        @UniqueConstraint(name = "uk_refund_merchant_idempotency", columnNames = {"merchantId", "idempotencyKey"})
+    }
+)
+public class Refund {
+    @Id
+    private String id; // ref_xxx, on the same shard as its payment
+
+    @Column(nullable = false)
+    private String paymentId;
+
+    @Column(nullable = false)
+    private Long merchantId;
+
+    @Column(nullable = false, precision = 19, scale = 2)
+    private BigDecimal amount;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 20)
+    private Status status; // PENDING|SUCCEEDED|FAILED
+
+    @Column(nullable = false)
+    private Instant createdAt;
+    @Column(nullable = false)
+    private Instant updatedAt;
+
+    @Column(length = 64)
+    private String idempotencyKey;
+
+    public enum Status { PENDING, SUCCEEDED, FAILED }
+}
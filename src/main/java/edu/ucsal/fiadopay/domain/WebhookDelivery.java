@@ -3,9 +3,14 @@ package edu.ucsal.fiadopay.domain;
 import jakarta.persistence.*;
 import lombok.*;
 import java.time.Instant;
+import java.util.List;
 
 @Entity
 @Data @NoArgsConstructor @AllArgsConstructor @Builder
+@Table(indexes = {
+        @Index(name = "idx_delivery_status_next_attempt", columnList = "status,nextAttemptAt"),
+        @Index(name = "idx_delivery_batch", columnList = "merchantId,targetUrl,status")
+})
 public class WebhookDelivery {
     @Id @GeneratedValue(strategy = GenerationType.IDENTITY)
     private Long id;
@@ -13,12 +18,33 @@ public class WebhookDelivery {
     private String eventId;     // evt_xxx
     private String eventType;   // payment.updated
     private String paymentId;
+    private Long merchantId;
     private String targetUrl;   // merchant webhook
     private String signature;   // HMAC
+    private String signatureKeyId; // v1, v2... or m<version> for per-merchant secrets
     private int attempts;
     private boolean delivered;
     private Instant lastAttemptAt;
 
-    @Lob
-    private String payload;
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 20)
+    private Status status;         // BATCHING|PENDING|DELIVERED|FAILED
+    @Column(nullable = false)
+    private Instant nextAttemptAt; // when the relay may (re)claim this row
+
+    // UTF-8 JSON, exactly the bytes that were signed (varbinary/bytea: H2 in PostgreSQL mode has no BLOB)
+    @Column(length = 1_048_576)
+    private byte[] payload;
+
+    // merchant opted into batching: up to this many BATCHING rows of the same target go out as one request
+    private Integer batchMax;
+
+    // set only on the in-memory envelope that carries a batch; its payload is the JSON array of these rows
+    @Transient
+    @ToString.Exclude @EqualsAndHashCode.Exclude
+    private List<WebhookDelivery> batch;
+
+    public boolean isBatch() { return batch != null; }
+
+    public enum Status { BATCHING, PENDING, DELIVERED, FAILED }
 }
@@ -0,0 +1,20 @@
+package edu.ucsal.fiadopay.payment;
+
+import org.springframework.stereotype.Component;
+
+import edu.ucsal.fiadopay.annotations.PaymentMethod;
+import edu.ucsal.fiadopay.controller.PaymentRequest;
+import edu.ucsal.fiadopay.domain.Payment;
+
+@Component
+@PaymentMethod(type = "BOLETO")
+public class BoletoPaymentHandler implements PaymentHandler {
+
+    @Override
+    public void apply(Payment p, PaymentRequest req) {
+        // a boleto is a single slip for the full amount, installments are ignored
+        p.setMonthlyInterest(null);
+        p.setTotalWithInterest(req.amount());
+        p.setInstallments(1);
+    }
+}
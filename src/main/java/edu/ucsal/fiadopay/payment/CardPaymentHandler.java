@@ -5,15 +5,14 @@ import java.math.RoundingMode;
 
 import org.springframework.stereotype.Component;
 
+import edu.ucsal.fiadopay.annotations.PaymentMethod;
 import edu.ucsal.fiadopay.controller.PaymentRequest;
 import edu.ucsal.fiadopay.domain.Payment;
 
 @Component
+@PaymentMethod(type = "CARD")
 public class CardPaymentHandler implements PaymentHandler {
 
-    @Override
-    public String type() { return "CARD"; }
-
     @Override
     public void apply(Payment p, PaymentRequest req) {
         Double interest = null;
@@ -1,9 +1,15 @@
 package edu.ucsal.fiadopay.payment;
 
+import edu.ucsal.fiadopay.annotations.PaymentMethod;
 import edu.ucsal.fiadopay.controller.PaymentRequest;
 import edu.ucsal.fiadopay.domain.Payment;
 
 public interface PaymentHandler {
-    String type();
+    /** Method this handler serves; by default the {@link PaymentMethod} annotation on the class. */
+    default String type() {
+        var ann = getClass().getAnnotation(PaymentMethod.class);
+        return ann == null ? null : ann.type();
+    }
+
     void apply(Payment p, PaymentRequest req);
 }
@@ -0,0 +1,62 @@
+package edu.ucsal.fiadopay.payment;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.aop.support.AopUtils;
+import org.springframework.core.annotation.AnnotationUtils;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+
+import edu.ucsal.fiadopay.annotations.PaymentMethod;
+
+/**
+ * {@link PaymentHandler} per {@link PaymentMethodType}, built once at startup. A handler's method
+ * comes from its {@link PaymentMethod} annotation (or {@code type()} when it has none). Startup
+ * fails if two handlers claim the same method, a handler names an unknown method, or a method has
+ * no handler, so dispatch is a single lookup that cannot miss.
+ */
+@Component
+public class PaymentHandlerRegistry {
+
+    private final Map<PaymentMethodType, PaymentHandler> handlers;
+
+    public PaymentHandlerRegistry(List<PaymentHandler> beans) {
+        var map = new EnumMap<PaymentMethodType, PaymentHandler>(PaymentMethodType.class);
+        for (var h : beans) {
+            var ann = AnnotationUtils.findAnnotation(AopUtils.getTargetClass(h), PaymentMethod.class);
+            var type = ann != null ? ann.type() : h.type();
+            if (ann != null && h.type() != null && !ann.type().equalsIgnoreCase(h.type())) {
+                throw new IllegalStateException(h.getClass().getName() + ": @PaymentMethod(type=" + ann.type()
+                        + ") disagrees with type() " + h.type());
+            }
+            var method = PaymentMethodType.parse(type);
+            if (method == null) {
+                throw new IllegalStateException(h.getClass().getName() + ": unknown payment method '" + type + "'");
+            }
+            var previous = map.putIfAbsent(method, h);
+            if (previous != null) {
+                throw new IllegalStateException("Payment method " + method + " has two handlers: "
+                        + previous.getClass().getName() + " and " + h.getClass().getName());
+            }
+        }
+        var missing = new ArrayList<PaymentMethodType>();
+        for (var method : PaymentMethodType.values()) {
+            if (!map.containsKey(method)) missing.add(method);
+        }
+        if (!missing.isEmpty()) throw new IllegalStateException("No PaymentHandler for " + missing);
+        this.handlers = Collections.unmodifiableMap(map);
+    }
+
+    /** Handler for a request's method; 400 for a method the gateway does not accept. */
+    public PaymentHandler forMethod(PaymentMethodType method) {
+        if (method == null) throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Unsupported payment method");
+        return handlers.get(method);
+    }
+
+    public Map<PaymentMethodType, PaymentHandler> getHandlers() { return handlers; }
+}
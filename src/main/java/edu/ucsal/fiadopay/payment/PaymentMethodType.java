@@ -0,0 +1,17 @@
+package edu.ucsal.fiadopay.payment;
+
+/** Payment methods accepted by the gateway; {@code PaymentRequest.method} is matched case-insensitively. */
+public enum PaymentMethodType {
+    CARD, PIX, DEBIT, BOLETO;
+
+    private static final PaymentMethodType[] VALUES = values();
+
+    /** The matching method, or null; no allocation, so it is safe on the request path. */
+    public static PaymentMethodType parse(String method) {
+        if (method == null) return null;
+        for (var t : VALUES) {
+            if (t.name().equalsIgnoreCase(method)) return t;
+        }
+        return null;
+    }
+}
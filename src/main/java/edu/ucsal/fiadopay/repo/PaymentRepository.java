@@ -1,7 +1,17 @@
 package edu.ucsal.fiadopay.repo;
 import edu.ucsal.fiadopay.domain.Payment;
-import org.springframework.data.jpa.repository.JpaRepository;
-import java.util.Optional;
-public interface PaymentRepository extends JpaRepository<Payment, String> {
-  Optional<Payment> findByIdempotencyKeyAndMerchantId(String ik, Long mid);
+import org.springframework.data.repository.Repository;
+import java.time.Instant;
+/**
+ * Payments are sharded (see {@link PaymentShards}), so every method is implemented in
+ * {@link PaymentRepositoryCustom} and routed there; nothing goes through the JPA persistence context.
+ */
+public interface PaymentRepository extends Repository<Payment, String>, PaymentRepositoryCustom {
+
+  /** What settlement needs to resume a pending payment after a restart. */
+  interface SettlementView {
+    String getId();
+    Long getMerchantId();
+    Instant getCreatedAt();
+  }
 }
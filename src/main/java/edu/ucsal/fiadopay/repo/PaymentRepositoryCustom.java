@@ -0,0 +1,54 @@
+package edu.ucsal.fiadopay.repo;
+import edu.ucsal.fiadopay.domain.Payment;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Consumer;
+/**
+ * Plain JDBC for the payment hot path: no persistence context, no dirty checking,
+ * one statement per write. Status changes are conditional, so a lost race shows up as
+ * "not updated" instead of silently overwriting the winner.
+ * <p>
+ * Calls go to one shard, picked from the payment id or the merchant id; only the methods
+ * documented as scatter-gather query every shard.
+ */
+public interface PaymentRepositoryCustom {
+  /** An id without a valid shard tag, such as one from before sharding, is looked up on shard 0. */
+  Optional<Payment> findById(String id);
+  Optional<Payment> findByIdempotencyKeyAndMerchantId(String idempotencyKey, Long merchantId);
+  List<Payment> findByMerchantIdAndIdempotencyKeyIn(Long merchantId, Collection<String> keys);
+  /** Scatter-gather: id, merchant and creation time of every payment in {@code status}. */
+  List<PaymentRepository.SettlementView> findByStatus(Payment.Status status);
+  /** Single INSERT; a duplicate idempotency key surfaces as {@code DuplicateKeyException}. */
+  void insert(Payment p);
+  /** Inserts every payment in one JDBC batch; all or nothing. */
+  void insertAll(List<Payment> payments);
+  /**
+   * Batched {@code UPDATE payment SET status=?, updated_at=?} from PENDING; element i is true if {@code ids[i]} moved to {@code statuses[i]}
+   * at {@code updatedAt[i]}, or already carries exactly that status and timestamp (an earlier attempt of the
+   * same settlement committed), so a retried batch is reported the same way as the first attempt.
+   */
+  boolean[] updateStatusIfPending(List<String> ids, List<Payment.Status> statuses, List<Instant> updatedAt);
+  /**
+   * One page of a merchant's payments, newest first, strictly after ({@code afterCreatedAt}, {@code afterId})
+   * when given. {@code status}, {@code from} (inclusive) and {@code to} (exclusive) are optional filters.
+   */
+  List<Payment> findPage(Long merchantId, Payment.Status status, Instant from, Instant to,
+                         Instant afterCreatedAt, String afterId, int limit);
+  /**
+   * Streams a merchant's payments oldest first through a forward-only cursor, {@code fetchSize} rows
+   * per round trip, handing each row to {@code sink}; nothing is collected.
+   */
+  void streamByMerchant(Long merchantId, Payment.Status status, Instant from, Instant to,
+                        int fetchSize, Consumer<Payment> sink);
+  /**
+   * Scatter-gather {@link #findPage} over all merchants: each shard returns its newest {@code limit}
+   * rows after the cursor and the pages are merged, so the cursor works across shards.
+   */
+  List<Payment> findRecent(Payment.Status status, Instant from, Instant to,
+                           Instant afterCreatedAt, String afterId, int limit);
+  /** Scatter-gather: payment count per status, element i for shard i. */
+  List<Map<String, Long>> countByStatus();
+}
@@ -0,0 +1,266 @@
+package edu.ucsal.fiadopay.repo;
+import edu.ucsal.fiadopay.domain.Payment;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Consumer;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+class PaymentRepositoryCustomImpl implements PaymentRepositoryCustom {
+  private static final String INSERT = "insert into payment (id, merchant_id, method, amount, currency, installments, "
+      + "monthly_interest, total_with_interest, status, created_at, updated_at, idempotency_key, metadata_order_id, "
+      + "refunded_amount, refunding_amount) values (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+  private static final String SETTLE = "update payment set status = ?, updated_at = ? where id = ? "
+      + "and (status = 'PENDING' or (status = ? and updated_at = ?))";
+
+  private static final String SELECT = "select id, merchant_id, method, amount, currency, installments, monthly_interest, "
+      + "total_with_interest, status, created_at, updated_at, idempotency_key, metadata_order_id, refunded_amount, "
+      + "refunding_amount from payment ";
+
+  private static final Comparator<Payment> NEWEST_FIRST =
+      Comparator.comparing(Payment::getCreatedAt).thenComparing(Payment::getId).reversed();
+
+  private record Settlement(String getId, Long getMerchantId, Instant getCreatedAt)
+      implements PaymentRepository.SettlementView {}
+
+  private record StatusAt(String status, Instant at) {}
+
+  private final PaymentShards shards;
+
+  PaymentRepositoryCustomImpl(PaymentShards shards) {
+    this.shards = shards;
+  }
+
+  @Override
+  public Optional<Payment> findById(String id) {
+    int shard = shards.forPaymentId(id);
+    if (shard < 0) return Optional.empty();
+    return shards.jdbc(shard).query(SELECT + "where id = ?", (rs, n) -> mapRow(rs), id).stream().findFirst();
+  }
+
+  @Override
+  public Optional<Payment> findByIdempotencyKeyAndMerchantId(String idempotencyKey, Long merchantId) {
+    return shards.jdbc(shards.forMerchant(merchantId))
+        .query(SELECT + "where merchant_id = ? and idempotency_key = ?", (rs, n) -> mapRow(rs), merchantId, idempotencyKey)
+        .stream().findFirst();
+  }
+
+  @Override
+  public List<Payment> findByMerchantIdAndIdempotencyKeyIn(Long merchantId, Collection<String> keys) {
+    if (keys.isEmpty()) return List.of();
+    var args = new ArrayList<Object>(keys.size() + 1);
+    args.add(merchantId);
+    args.addAll(keys);
+    var sql = SELECT + "where merchant_id = ? and idempotency_key in (" + String.join(", ", Collections.nCopies(keys.size(), "?")) + ")";
+    return shards.jdbc(shards.forMerchant(merchantId)).query(sql, (rs, n) -> mapRow(rs), args.toArray());
+  }
+
+  @Override
+  public List<PaymentRepository.SettlementView> findByStatus(Payment.Status status) {
+    var perShard = shards.scatter(shard -> shards.jdbc(shard).query(
+        "select id, merchant_id, created_at from payment where status = ?",
+        (rs, n) -> (PaymentRepository.SettlementView) new Settlement(rs.getString("id"), rs.getLong("merchant_id"),
+            rs.getObject("created_at", OffsetDateTime.class).toInstant()),
+        status.name()));
+    var all = new ArrayList<PaymentRepository.SettlementView>();
+    perShard.forEach(all::addAll);
+    return all;
+  }
+
+  @Override
+  public void insert(Payment p) {
+    shards.jdbc(shardOf(p)).update(INSERT, ps -> bindInsert(ps, p));
+  }
+
+  @Override
+  public void insertAll(List<Payment> payments) {
+    if (payments.isEmpty()) return;
+    // a batch comes from one merchant, so this is one shard and one transaction
+    var byShard = new LinkedHashMap<Integer, List<Payment>>();
+    for (var p : payments) byShard.computeIfAbsent(shardOf(p), s -> new ArrayList<>()).add(p);
+    byShard.forEach((shard, rows) -> shards.tx(shard).executeWithoutResult(status ->
+        shards.jdbc(shard).batchUpdate(INSERT, rows, rows.size(), this::bindInsert)));
+  }
+
+  @Override
+  public boolean[] updateStatusIfPending(List<String> ids, List<Payment.Status> statuses, List<Instant> updatedAt) {
+    var updated = new boolean[ids.size()];
+    if (ids.isEmpty()) return updated;
+    var byShard = new LinkedHashMap<Integer, List<Integer>>();
+    for (int i = 0; i < ids.size(); i++) {
+      int shard = shards.forPaymentId(ids.get(i));
+      if (shard >= 0) byShard.computeIfAbsent(shard, s -> new ArrayList<>()).add(i);
+    }
+    // one batch and transaction per shard; the updates are independent, so no cross-shard atomicity is needed
+    byShard.forEach((shard, indexes) -> shards.tx(shard).executeWithoutResult(status -> {
+      var counts = shards.jdbc(shard).batchUpdate(SETTLE, new BatchPreparedStatementSetter() {
+        @Override
+        public void setValues(PreparedStatement ps, int j) throws SQLException {
+          int i = indexes.get(j);
+          var at = timestamp(updatedAt.get(i));
+          ps.setString(1, statuses.get(i).name());
+          ps.setObject(2, at);
+          ps.setString(3, ids.get(i));
+          ps.setString(4, statuses.get(i).name());
+          ps.setObject(5, at);
+        }
+
+        @Override
+        public int getBatchSize() { return indexes.size(); }
+      });
+      var unknown = new ArrayList<Integer>();
+      for (int j = 0; j < counts.length; j++) {
+        if (counts[j] == Statement.SUCCESS_NO_INFO) unknown.add(indexes.get(j));
+        else updated[indexes.get(j)] = counts[j] == 1;
+      }
+      // drivers that cannot report per-statement counts return SUCCESS_NO_INFO: read the rows back in the
+      // same transaction; only one now holding exactly this status and timestamp was settled by this call
+      if (!unknown.isEmpty()) {
+        var held = new HashMap<String, StatusAt>();
+        shards.jdbc(shard).query("select id, status, updated_at from payment where id in ("
+                + String.join(", ", Collections.nCopies(unknown.size(), "?")) + ")",
+            (ResultSet rs) -> { held.put(rs.getString(1),
+                new StatusAt(rs.getString(2), rs.getObject(3, OffsetDateTime.class).toInstant())); },
+            unknown.stream().map(ids::get).toArray());
+        for (int i : unknown) {
+          var row = held.get(ids.get(i));
+          updated[i] = new StatusAt(statuses.get(i).name(), updatedAt.get(i)).equals(row);
+        }
+      }
+    }));
+    return updated;
+  }
+
+  @Override
+  public List<Payment> findPage(Long merchantId, Payment.Status status, Instant from, Instant to,
+                                Instant afterCreatedAt, String afterId, int limit) {
+    var sql = new StringBuilder(SELECT).append("where merchant_id = ?");
+    var args = new ArrayList<Object>();
+    args.add(merchantId);
+    var query = pageQuery(sql, args, status, from, to, afterCreatedAt, afterId, limit);
+    return shards.jdbc(shards.forMerchant(merchantId)).query(query, (rs, n) -> mapRow(rs), args.toArray());
+  }
+
+  @Override
+  public List<Payment> findRecent(Payment.Status status, Instant from, Instant to,
+                                  Instant afterCreatedAt, String afterId, int limit) {
+    var perShard = shards.scatter(shard -> {
+      var sql = new StringBuilder(SELECT).append("where 1 = 1");
+      var args = new ArrayList<Object>();
+      var query = pageQuery(sql, args, status, from, to, afterCreatedAt, afterId, limit);
+      return shards.jdbc(shard).query(query, (rs, n) -> mapRow(rs), args.toArray());
+    });
+    var merged = new ArrayList<Payment>();
+    perShard.forEach(merged::addAll);
+    merged.sort(NEWEST_FIRST);
+    return merged.size() > limit ? new ArrayList<>(merged.subList(0, limit)) : merged;
+  }
+
+  @Override
+  public List<Map<String, Long>> countByStatus() {
+    return shards.scatter(shard -> {
+      var counts = new LinkedHashMap<String, Long>();
+      shards.jdbc(shard).query("select status, count(*) from payment group by status order by status",
+          (ResultSet rs) -> { counts.put(rs.getString(1), rs.getLong(2)); });
+      return counts;
+    });
+  }
+
+  private static String pageQuery(StringBuilder sql, List<Object> args, Payment.Status status, Instant from, Instant to,
+                                  Instant afterCreatedAt, String afterId, int limit) {
+    if (status != null) { sql.append(" and status = ?"); args.add(status.name()); }
+    if (from != null) { sql.append(" and created_at >= ?"); args.add(timestamp(from)); }
+    if (to != null) { sql.append(" and created_at < ?"); args.add(timestamp(to)); }
+    if (afterCreatedAt != null) {
+      // row-value comparison: a single range seek on (merchant_id[, status], created_at, id)
+      sql.append(" and (created_at, id) < (?, ?)");
+      args.add(timestamp(afterCreatedAt));
+      args.add(afterId);
+    }
+    sql.append(" order by created_at desc, id desc limit ?");
+    args.add(limit);
+    return sql.toString();
+  }
+
+  @Override
+  public void streamByMerchant(Long merchantId, Payment.Status status, Instant from, Instant to,
+                               int fetchSize, Consumer<Payment> sink) {
+    var sql = new StringBuilder(SELECT).append("where merchant_id = ?");
+    var args = new ArrayList<Object>();
+    args.add(merchantId);
+    if (status != null) { sql.append(" and status = ?"); args.add(status.name()); }
+    if (from != null) { sql.append(" and created_at >= ?"); args.add(timestamp(from)); }
+    if (to != null) { sql.append(" and created_at < ?"); args.add(timestamp(to)); }
+    sql.append(" order by created_at, id");
+    int shard = shards.forMerchant(merchantId);
+    // read-only transaction: some drivers (PostgreSQL) only use a server-side cursor outside auto-commit
+    shards.readOnlyTx(shard).executeWithoutResult(tx -> shards.jdbc(shard).query(con -> {
+      var ps = con.prepareStatement(sql.toString(), ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+      ps.setFetchSize(fetchSize);
+      for (int i = 0; i < args.size(); i++) ps.setObject(i + 1, args.get(i));
+      return ps;
+    }, (ResultSet rs) -> sink.accept(mapRow(rs))));
+  }
+
+  private int shardOf(Payment p) {
+    int shard = shards.forPaymentId(p.getId());
+    if (shard < 0) throw new IllegalArgumentException("Payment id " + p.getId() + " carries no valid shard");
+    return shard;
+  }
+
+  private static Payment mapRow(ResultSet rs) throws SQLException {
+    return Payment.builder()
+        .id(rs.getString("id"))
+        .merchantId(rs.getLong("merchant_id"))
+        .method(rs.getString("method"))
+        .amount(rs.getBigDecimal("amount"))
+        .currency(rs.getString("currency"))
+        .installments(rs.getInt("installments"))
+        .monthlyInterest(rs.getObject("monthly_interest", Double.class))
+        .totalWithInterest(rs.getBigDecimal("total_with_interest"))
+        .status(Payment.Status.valueOf(rs.getString("status")))
+        .createdAt(rs.getObject("created_at", OffsetDateTime.class).toInstant())
+        .updatedAt(rs.getObject("updated_at", OffsetDateTime.class).toInstant())
+        .idempotencyKey(rs.getString("idempotency_key"))
+        .metadataOrderId(rs.getString("metadata_order_id"))
+        .refundedAmount(rs.getBigDecimal("refunded_amount"))
+        .refundingAmount(rs.getBigDecimal("refunding_amount"))
+        .build();
+  }
+
+  private void bindInsert(PreparedStatement ps, Payment p) throws SQLException {
+    ps.setString(1, p.getId());
+    ps.setLong(2, p.getMerchantId());
+    ps.setString(3, p.getMethod());
+    ps.setBigDecimal(4, p.getAmount());
+    ps.setString(5, p.getCurrency());
+    ps.setInt(6, p.getInstallments());
+    if (p.getMonthlyInterest() == null) ps.setNull(7, Types.DOUBLE); else ps.setDouble(7, p.getMonthlyInterest());
+    ps.setBigDecimal(8, p.getTotalWithInterest());
+    ps.setString(9, p.getStatus().name());
+    ps.setObject(10, timestamp(p.getCreatedAt()));
+    ps.setObject(11, timestamp(p.getUpdatedAt()));
+    ps.setString(12, p.getIdempotencyKey());
+    ps.setString(13, p.getMetadataOrderId());
+    ps.setBigDecimal(14, p.getRefundedAmount());
+    ps.setBigDecimal(15, p.getRefundingAmount());
+  }
+
+  // Instant columns are "timestamp(6) with time zone"
+  static OffsetDateTime timestamp(Instant instant) {
+    return instant.atOffset(ZoneOffset.UTC);
+  }
+}
@@ -0,0 +1,135 @@
+package edu.ucsal.fiadopay.repo;
+import edu.ucsal.fiadopay.config.ShardingProperties;
+import com.zaxxer.hikari.HikariDataSource;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.IntFunction;
+import javax.sql.DataSource;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.boot.jdbc.DataSourceBuilder;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+/**
+ * The databases holding the payment table. All of a merchant's payments live on shard
+ * {@code merchantId mod N}, and the shard is written into the payment id as two base-36 digits
+ * right after the prefix ({@code pay_0a...}), so a lookup by id goes straight to it. Changing N
+ * moves merchants to other shards; existing rows are not rebalanced.
+ * <p>
+ * Shard 0 is the application datasource, where Hibernate manages the table; the others come from
+ * {@code fiadopay.sharding.shards} and get {@code db/payment-shard.sql} at startup.
+ */
+@Component
+public class PaymentShards implements DisposableBean {
+  private static final int TAG_RADIX = 36;
+  private static final int MAX_SHARDS = TAG_RADIX * TAG_RADIX;
+  private static final int LEGACY_ID_LENGTH = 8;
+
+  private final List<JdbcTemplate> jdbc = new ArrayList<>();
+  private final List<TransactionTemplate> tx = new ArrayList<>();
+  private final List<TransactionTemplate> readOnlyTx = new ArrayList<>();
+  private final List<HikariDataSource> owned = new ArrayList<>();
+  // one virtual thread per shard query, so a scatter waits for the slowest shard rather than the sum
+  private final ExecutorService scatterExecutor =
+      Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("fiado-shard-", 0).factory());
+
+  public PaymentShards(DataSource dataSource, PlatformTransactionManager transactionManager, ShardingProperties props) {
+    if (props.getShards().size() + 1 > MAX_SHARDS) {
+      throw new IllegalStateException("At most " + MAX_SHARDS + " payment shards are supported");
+    }
+    add(dataSource, transactionManager);
+    for (var shard : props.getShards()) {
+      var ds = DataSourceBuilder.create().type(HikariDataSource.class)
+          .url(shard.getUrl()).username(shard.getUsername()).password(shard.getPassword()).build();
+      ds.setPoolName("fiado-shard-" + jdbc.size());
+      ds.setMaximumPoolSize(shard.getMaxPoolSize());
+      owned.add(ds);
+      new ResourceDatabasePopulator(new ClassPathResource("db/payment-shard.sql")).execute(ds);
+      add(ds, new DataSourceTransactionManager(ds));
+    }
+  }
+
+  private void add(DataSource ds, PlatformTransactionManager txManager) {
+    jdbc.add(new JdbcTemplate(ds));
+    tx.add(new TransactionTemplate(txManager));
+    var readOnly = new TransactionTemplate(txManager);
+    readOnly.setReadOnly(true);
+    readOnlyTx.add(readOnly);
+  }
+
+  public int count() { return jdbc.size(); }
+
+  public int forMerchant(Long merchantId) {
+    return (int) Math.floorMod(merchantId, (long) count());
+  }
+
+  /** The two characters a new payment id of this merchant carries after its prefix. */
+  public String tagFor(Long merchantId) {
+    return tag(forMerchant(merchantId));
+  }
+
+  /** The tag of the shard {@code id} lives on, for ids that must be stored next to it. */
+  public String tagOf(String id) {
+    int shard = forPaymentId(id);
+    if (shard < 0) throw new IllegalArgumentException("Id " + id + " carries no valid shard");
+    return tag(shard);
+  }
+
+  private static String tag(int shard) {
+    return new String(new char[] {
+        Character.forDigit(shard / TAG_RADIX, TAG_RADIX), Character.forDigit(shard % TAG_RADIX, TAG_RADIX) });
+  }
+
+  /**
+   * Shard encoded in a payment id, or -1 for no id. Ids from before sharding ({@code pay_} and 8 hex
+   * digits, whose first two could pass for a tag) and ids without a valid tag are on shard 0.
+   */
+  public int forPaymentId(String id) {
+    if (id == null) return -1;
+    int sep = id.indexOf('_');
+    if (sep < 0 || id.length() < sep + 3 || id.length() == sep + 1 + LEGACY_ID_LENGTH) return 0;
+    int hi = Character.digit(id.charAt(sep + 1), TAG_RADIX);
+    int lo = Character.digit(id.charAt(sep + 2), TAG_RADIX);
+    if (hi < 0 || lo < 0) return 0;
+    int shard = hi * TAG_RADIX + lo;
+    return shard < count() ? shard : 0;
+  }
+
+  JdbcTemplate jdbc(int shard) { return jdbc.get(shard); }
+
+  TransactionTemplate tx(int shard) { return tx.get(shard); }
+
+  TransactionTemplate readOnlyTx(int shard) { return readOnlyTx.get(shard); }
+
+  /** Runs {@code query} on every shard concurrently; element i of the result comes from shard i. */
+  <T> List<T> scatter(IntFunction<T> query) {
+    if (count() == 1) return List.of(query.apply(0));
+    var futures = new ArrayList<CompletableFuture<T>>(count());
+    for (int i = 0; i < count(); i++) {
+      int shard = i;
+      futures.add(CompletableFuture.supplyAsync(() -> query.apply(shard), scatterExecutor));
+    }
+    var results = new ArrayList<T>(count());
+    try {
+      for (var f : futures) results.add(f.join());
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof RuntimeException re) throw re;
+      throw e;
+    }
+    return results;
+  }
+
+  @Override
+  public void destroy() {
+    scatterExecutor.shutdownNow();
+    owned.forEach(HikariDataSource::close);
+  }
+}
@@ -0,0 +1,6 @@
+package edu.ucsal.fiadopay.repo;
+import edu.ucsal.fiadopay.domain.Refund;
+import org.springframework.data.repository.Repository;
+/** Refunds live on their payment's shard; every method is routed in {@link RefundRepositoryCustom}. */
+public interface RefundRepository extends Repository<Refund, String>, RefundRepositoryCustom {
+}
@@ -0,0 +1,36 @@
+package edu.ucsal.fiadopay.repo;
+import edu.ucsal.fiadopay.domain.Payment;
+import edu.ucsal.fiadopay.domain.Refund;
+import java.util.List;
+import java.util.Optional;
+/**
+ * JDBC access to refunds, routed like payments: a refund id carries its payment's shard tag.
+ * The refundable balance is kept on the payment row ({@code refunded_amount} + {@code refunding_amount}
+ * never exceed {@code total_with_interest}) and only changes through conditional updates in the
+ * same transaction as the refund row.
+ */
+public interface RefundRepositoryCustom {
+  /** An id without a valid shard tag, such as one from before sharding, is looked up on shard 0. */
+  Optional<Refund> findById(String id);
+  /** Looked up on the shard of {@code paymentId}, where a refund of it with this key is stored. */
+  Optional<Refund> findByIdempotencyKeyAndMerchantId(String idempotencyKey, Long merchantId, String paymentId);
+  /** A payment's refunds, oldest first. */
+  List<Refund> findByPaymentId(String paymentId);
+  /** Scatter-gather: every refund in {@code status}. */
+  List<Refund> findByStatus(Refund.Status status);
+  /**
+   * Holds {@code refund.amount} on its payment and inserts the PENDING refund, in one transaction.
+   * False, with nothing written, when the payment is not in one of {@code refundable} or the amount
+   * exceeds what is left; a duplicate idempotency key surfaces as {@code DuplicateKeyException}.
+   */
+  boolean reserve(Refund refund, List<Payment.Status> refundable);
+  /**
+   * Moves each refund from PENDING to its {@code status} (SUCCEEDED or FAILED) at its {@code updatedAt}
+   * and settles the held amount on the payment: added to the refunded total, which makes the payment
+   * PARTIALLY_REFUNDED or REFUNDED, or released. Element i is the payment's status afterwards, or null
+   * when refund i had left PENDING some other way. A refund that already carries exactly this status and
+   * timestamp was completed by an earlier attempt of the same call: its amounts are not applied again,
+   * but it is reported like the first time. One transaction per shard.
+   */
+  Payment.Status[] complete(List<Refund> refunds);
+}
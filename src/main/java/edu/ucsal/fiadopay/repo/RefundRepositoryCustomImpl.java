@@ -0,0 +1,172 @@
+package edu.ucsal.fiadopay.repo;
+import static edu.ucsal.fiadopay.repo.PaymentRepositoryCustomImpl.timestamp;
+import edu.ucsal.fiadopay.domain.Payment;
+import edu.ucsal.fiadopay.domain.Refund;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Optional;
+class RefundRepositoryCustomImpl implements RefundRepositoryCustom {
+  private static final String INSERT = "insert into refund (id, payment_id, merchant_id, amount, status, created_at, "
+      + "updated_at, idempotency_key) values (?, ?, ?, ?, ?, ?, ?, ?)";
+  private static final String SELECT = "select id, payment_id, merchant_id, amount, status, created_at, updated_at, "
+      + "idempotency_key from refund ";
+  // balance check and hold in one statement: a concurrent refund that got there first makes this one miss
+  private static final String HOLD = "update payment set refunding_amount = refunding_amount + ? "
+      + "where id = ? and status in (%s) and refunded_amount + refunding_amount + ? <= total_with_interest";
+  private static final String FINISH = "update refund set status = ?, updated_at = ? where id = ? and status = 'PENDING'";
+  private static final String LOCK = "select id, status, updated_at from refund where id in (%s) for update";
+  // SET expressions see the row as it was, so the CASE compares the new refunded total
+  private static final String SUCCEED = "update payment set refunded_amount = refunded_amount + ?, "
+      + "refunding_amount = refunding_amount - ?, updated_at = ?, status = case when refunded_amount + ? "
+      + ">= total_with_interest then 'REFUNDED' else 'PARTIALLY_REFUNDED' end where id = ?";
+  private static final String RELEASE = "update payment set refunding_amount = refunding_amount - ? where id = ?";
+
+  private final PaymentShards shards;
+
+  RefundRepositoryCustomImpl(PaymentShards shards) {
+    this.shards = shards;
+  }
+
+  @Override
+  public Optional<Refund> findById(String id) {
+    int shard = shards.forPaymentId(id);
+    if (shard < 0) return Optional.empty();
+    return shards.jdbc(shard).query(SELECT + "where id = ?", (rs, n) -> mapRow(rs), id).stream().findFirst();
+  }
+
+  @Override
+  public Optional<Refund> findByIdempotencyKeyAndMerchantId(String idempotencyKey, Long merchantId, String paymentId) {
+    int shard = shards.forPaymentId(paymentId);
+    if (shard < 0) return Optional.empty();
+    return shards.jdbc(shard)
+        .query(SELECT + "where merchant_id = ? and idempotency_key = ?", (rs, n) -> mapRow(rs), merchantId, idempotencyKey)
+        .stream().findFirst();
+  }
+
+  @Override
+  public List<Refund> findByPaymentId(String paymentId) {
+    int shard = shards.forPaymentId(paymentId);
+    if (shard < 0) return List.of();
+    return shards.jdbc(shard).query(SELECT + "where payment_id = ? order by created_at, id", (rs, n) -> mapRow(rs), paymentId);
+  }
+
+  @Override
+  public List<Refund> findByStatus(Refund.Status status) {
+    var perShard = shards.scatter(shard ->
+        shards.jdbc(shard).query(SELECT + "where status = ?", (rs, n) -> mapRow(rs), status.name()));
+    var all = new ArrayList<Refund>();
+    perShard.forEach(all::addAll);
+    return all;
+  }
+
+  @Override
+  public boolean reserve(Refund refund, List<Payment.Status> refundable) {
+    int shard = shardOf(refund);
+    var hold = HOLD.formatted(String.join(", ", Collections.nCopies(refundable.size(), "?")));
+    var args = new ArrayList<Object>();
+    args.add(refund.getAmount());
+    args.add(refund.getPaymentId());
+    refundable.forEach(s -> args.add(s.name()));
+    args.add(refund.getAmount());
+    return Boolean.TRUE.equals(shards.tx(shard).execute(tx -> {
+      var jdbc = shards.jdbc(shard);
+      if (jdbc.update(hold, args.toArray()) != 1) return false;
+      jdbc.update(INSERT, refund.getId(), refund.getPaymentId(), refund.getMerchantId(), refund.getAmount(),
+          refund.getStatus().name(), timestamp(refund.getCreatedAt()), timestamp(refund.getUpdatedAt()),
+          refund.getIdempotencyKey());
+      return true;
+    }));
+  }
+
+  @Override
+  public Payment.Status[] complete(List<Refund> refunds) {
+    var result = new Payment.Status[refunds.size()];
+    var byShard = new LinkedHashMap<Integer, List<Integer>>();
+    for (int i = 0; i < refunds.size(); i++) byShard.computeIfAbsent(shardOf(refunds.get(i)), s -> new ArrayList<>()).add(i);
+    byShard.forEach((shard, indexes) -> shards.tx(shard).executeWithoutResult(tx -> {
+      var jdbc = shards.jdbc(shard);
+      // lock the rows and decide from what they hold, not from update counts: a PENDING row is ours to
+      // finish, one already at our (status, updated_at) was finished by an earlier attempt of this call
+      var current = new HashMap<String, Refund>();
+      jdbc.query(LOCK.formatted(String.join(", ", Collections.nCopies(indexes.size(), "?"))),
+          (ResultSet rs) -> { current.put(rs.getString(1), Refund.builder()
+              .status(Refund.Status.valueOf(rs.getString(2)))
+              .updatedAt(rs.getObject(3, OffsetDateTime.class).toInstant())
+              .build()); },
+          indexes.stream().map(i -> refunds.get(i).getId()).toArray());
+      var pending = new ArrayList<Integer>();
+      var succeeded = new ArrayList<Integer>();
+      var failed = new ArrayList<Integer>();
+      var changed = new ArrayList<Integer>();
+      for (int i : indexes) {
+        var r = refunds.get(i);
+        var row = current.get(r.getId());
+        if (row == null) continue;
+        if (row.getStatus() == Refund.Status.PENDING) {
+          pending.add(i);
+          (r.getStatus() == Refund.Status.SUCCEEDED ? succeeded : failed).add(i);
+        } else if (row.getStatus() != r.getStatus() || !row.getUpdatedAt().equals(r.getUpdatedAt())) {
+          continue;
+        }
+        changed.add(i);
+      }
+      if (!pending.isEmpty()) {
+        jdbc.batchUpdate(FINISH, pending, pending.size(), (ps, i) -> {
+          var r = refunds.get(i);
+          ps.setString(1, r.getStatus().name());
+          ps.setObject(2, timestamp(r.getUpdatedAt()));
+          ps.setString(3, r.getId());
+        });
+      }
+      if (!succeeded.isEmpty()) {
+        jdbc.batchUpdate(SUCCEED, succeeded, succeeded.size(), (ps, i) -> {
+          var r = refunds.get(i);
+          ps.setBigDecimal(1, r.getAmount());
+          ps.setBigDecimal(2, r.getAmount());
+          ps.setObject(3, timestamp(r.getUpdatedAt()));
+          ps.setBigDecimal(4, r.getAmount());
+          ps.setString(5, r.getPaymentId());
+        });
+      }
+      if (!failed.isEmpty()) {
+        jdbc.batchUpdate(RELEASE, failed, failed.size(), (ps, i) -> {
+          var r = refunds.get(i);
+          ps.setBigDecimal(1, r.getAmount());
+          ps.setString(2, r.getPaymentId());
+        });
+      }
+      if (changed.isEmpty()) return;
+      var paymentIds = changed.stream().map(i -> refunds.get(i).getPaymentId()).distinct().toList();
+      var statuses = new HashMap<String, Payment.Status>();
+      jdbc.query("select id, status from payment where id in (" + String.join(", ", Collections.nCopies(paymentIds.size(), "?")) + ")",
+          (ResultSet rs) -> { statuses.put(rs.getString(1), Payment.Status.valueOf(rs.getString(2))); }, paymentIds.toArray());
+      for (int i : changed) result[i] = statuses.get(refunds.get(i).getPaymentId());
+    }));
+    return result;
+  }
+
+  private int shardOf(Refund r) {
+    int shard = shards.forPaymentId(r.getId());
+    if (shard < 0) throw new IllegalArgumentException("Refund id " + r.getId() + " carries no valid shard");
+    return shard;
+  }
+
+  private static Refund mapRow(ResultSet rs) throws SQLException {
+    return Refund.builder()
+        .id(rs.getString("id"))
+        .paymentId(rs.getString("payment_id"))
+        .merchantId(rs.getLong("merchant_id"))
+        .amount(rs.getBigDecimal("amount"))
+        .status(Refund.Status.valueOf(rs.getString("status")))
+        .createdAt(rs.getObject("created_at", OffsetDateTime.class).toInstant())
+        .updatedAt(rs.getObject("updated_at", OffsetDateTime.class).toInstant())
+        .idempotencyKey(rs.getString("idempotency_key"))
+        .build();
+  }
+}
@@ -1,4 +1,27 @@
 package edu.ucsal.fiadopay.repo;
 import edu.ucsal.fiadopay.domain.WebhookDelivery;
+import jakarta.persistence.LockModeType;
+import jakarta.persistence.QueryHint;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
-public interface WebhookDeliveryRepository extends JpaRepository<WebhookDelivery, Long> { }
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import java.time.Instant;
+import java.util.List;
+public interface WebhookDeliveryRepository extends JpaRepository<WebhookDelivery, Long> {
+  // lock timeout -2 = SKIP LOCKED; dialects without support (H2) fall back to a plain FOR UPDATE
+  @Lock(LockModeType.PESSIMISTIC_WRITE)
+  @QueryHints(@QueryHint(name = "jakarta.persistence.lock.timeout", value = "-2"))
+  @Query("select d from WebhookDelivery d where d.status = :status and d.nextAttemptAt <= :now order by d.nextAttemptAt")
+  List<WebhookDelivery> findDueForUpdate(WebhookDelivery.Status status, Instant now, Limit limit);
+
+  // oldest rows of one merchant/target: a batch closes early once it is full, but only rows never
+  // attempted may go before they are due; failed ones wait out their backoff
+  @Lock(LockModeType.PESSIMISTIC_WRITE)
+  @QueryHints(@QueryHint(name = "jakarta.persistence.lock.timeout", value = "-2"))
+  @Query("select d from WebhookDelivery d where d.status = :status and d.merchantId = :merchantId"
+      + " and d.targetUrl = :targetUrl and (d.attempts = 0 or d.nextAttemptAt <= :now) order by d.nextAttemptAt")
+  List<WebhookDelivery> findBatchForUpdate(WebhookDelivery.Status status, Long merchantId, String targetUrl, Instant now,
+                                           Limit limit);
+}
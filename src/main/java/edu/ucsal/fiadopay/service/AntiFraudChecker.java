@@ -2,43 +2,94 @@ package edu.ucsal.fiadopay.service;
 
 import java.lang.reflect.Method;
 import java.math.BigDecimal;
-import java.util.HashMap;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.BindHandler;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.boot.context.properties.bind.handler.NoUnboundElementsBindHandler;
+import org.springframework.boot.context.properties.source.ConfigurationPropertySources;
+import org.springframework.boot.env.YamlPropertySourceLoader;
 import org.springframework.context.ApplicationContext;
+import org.springframework.core.io.ByteArrayResource;
 import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Component;
 import org.springframework.web.server.ResponseStatusException;
 
 import edu.ucsal.fiadopay.annotations.AntiFraud;
 import edu.ucsal.fiadopay.controller.PaymentRequest;
+import io.micrometer.core.instrument.MeterRegistry;
 
+/**
+ * Anti-fraud rule engine. Rules from {@code fiadopay.antifraud.rules} and from {@link AntiFraud}
+ * annotations are compiled into an immutable {@link AntiFraudRuleSet} (thresholds sorted, amounts
+ * in cents), so a check is a handful of primitive comparisons and allocates nothing. Velocity
+ * rules ({@code fiadopay.antifraud.velocity}) keep per-merchant sliding windows of bucketed
+ * atomic counters. The most severe action triggered wins: {@code block} rejects with 402,
+ * {@code review} and {@code warn} accept the payment and are logged and counted.
+ *
+ * <p>The live set sits behind an {@link AtomicReference}: reloads (admin API or
+ * {@link AntiFraudRulesWatcher}) compile a new versioned set and swap it in, so the check path
+ * never locks. A candidate can run in shadow next to the live set; it never rejects anything and
+ * only counts how its verdicts diverge from the live ones.
+ */
 @Component
-public class AntiFraudChecker implements InitializingBean {
+public class AntiFraudChecker implements InitializingBean, DisposableBean {
 
     private static final Logger log = LoggerFactory.getLogger(AntiFraudChecker.class);
 
+    private static final int HISTORY = 10;
+
+    /** Ordered by severity. */
+    public enum Action { ALLOW, WARN, REVIEW, BLOCK }
+
+    public record Verdict(Action action, String rule, String reason) {
+        public static final Verdict ALLOW = new Verdict(Action.ALLOW, null, null);
+    }
+
+    /** Candidate set and its divergence counts, indexed {@code live.ordinal() * 4 + shadow.ordinal()}. */
+    private record Shadow(AntiFraudRuleSet rules, LongAdder[] outcomes, Instant since) {}
+
     private final AntiFraudProperties props;
     private final ApplicationContext ctx;
+    private final MeterRegistry registry;
+    private final ScheduledExecutorService scheduler;
+    private final long purgeIntervalMs;
+    private final long origin = System.nanoTime();
+    private final List<AntiFraudProperties.Rule> annotated = new ArrayList<>();
+    private final AtomicReference<AntiFraudRuleSet> live = new AtomicReference<>();
+    private final AtomicReference<Shadow> shadow = new AtomicReference<>();
+    private final Map<Long, AntiFraudRuleSet> history = new LinkedHashMap<>(); // guarded by this
+    private long lastVersion; // guarded by this
+    private volatile ScheduledFuture<?> purgeTask;
 
-    // combined map of ruleName -> threshold
-    private final Map<String, Double> rules = new HashMap<>();
-
-    public AntiFraudChecker(AntiFraudProperties props, ApplicationContext ctx) {
+    public AntiFraudChecker(AntiFraudProperties props, ApplicationContext ctx, MeterRegistry registry,
+                            ScheduledExecutorService fiadoScheduler,
+                            @Value("${fiadopay.antifraud.purge-interval-ms:60000}") long purgeIntervalMs) {
         this.props = props;
         this.ctx = ctx;
+        this.registry = registry;
+        this.scheduler = fiadoScheduler;
+        this.purgeIntervalMs = purgeIntervalMs;
     }
 
     @Override
     public void afterPropertiesSet() throws Exception {
-        // load rules from properties
-        for (var r : props.getRules()){
-            rules.put(r.getName(), r.getThreshold());
-        }
-
         // scan bean types for @AntiFraud on methods WITHOUT instantiating beans (avoid circular deps)
         String[] beans = ctx.getBeanDefinitionNames();
         for (String b : beans) {
@@ -49,7 +100,13 @@ public class AntiFraudChecker implements InitializingBean {
                 for (Method m : methods) {
                     var ann = m.getAnnotation(AntiFraud.class);
                     if (ann != null) {
-                        rules.put(ann.name(), ann.threshold());
+                        var r = new AntiFraudProperties.Rule();
+                        r.setName(ann.name());
+                        r.setThreshold(BigDecimal.valueOf(ann.threshold()));
+                        r.setAction(ann.action());
+                        r.setMethod(ann.method());
+                        r.setCurrency(ann.currency());
+                        annotated.add(r);
                         log.info("Registered AntiFraud rule from annotation: {} -> {}", ann.name(), ann.threshold());
                     }
                 }
@@ -57,22 +114,198 @@ public class AntiFraudChecker implements InitializingBean {
                 // ignore types we can't resolve
             }
         }
+
+        // an invalid rule in application.yml fails startup
+        var set = install(props, "config");
+        log.info("AntiFraud plan v{}: {} velocity rule(s)", set.version, props.getVelocity().size());
+        purgeTask = scheduler.scheduleWithFixedDelay(this::purgeIdleWindows, purgeIntervalMs, purgeIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void destroy() {
+        if (purgeTask != null) purgeTask.cancel(false);
     }
 
-    public void check(PaymentRequest req){
-        if (req == null) return;
-        BigDecimal amountBd = req.amount();
-        if (amountBd == null) return;
-        double amt = amountBd.doubleValue();
+    /**
+     * Evaluates the live rule set for one payment of the merchant and records it in the velocity
+     * windows unless it is blocked. Throws 402 on {@code block}; otherwise returns the verdict.
+     */
+    public Verdict check(Long merchantId, PaymentRequest req) {
+        if (req == null || req.amount() == null) return Verdict.ALLOW;
+        long amount = AntiFraudRuleSet.toMinor(req.amount());
+        int method = AntiFraudRuleSet.methodBit(req.method());
+        long now = System.nanoTime() - origin;
+
+        // the shadow set reads the live windows, so it goes first: once the live set has recorded
+        // this payment, the candidate would count it twice
+        var s = shadow.get();
+        var candidate = s == null ? null : s.rules().evaluate(merchantId, amount, method, req.currency(), now);
+        var verdict = live.get().evaluate(merchantId, amount, method, req.currency(), now);
+        if (candidate != null) {
+            s.outcomes()[verdict.action().ordinal() * 4 + candidate.action().ordinal()].increment();
+        }
 
-        for (var entry : rules.entrySet()){
-            var name = entry.getKey();
-            var threshold = entry.getValue();
-            if (amt > threshold){
-                // currently action is block
-                log.warn("AntiFraud triggered: rule={}, amount={}, threshold={}", name, amt, threshold);
-                throw new ResponseStatusException(HttpStatus.PAYMENT_REQUIRED, "AntiFraud("+name+"): amount exceeds threshold");
+        switch (verdict.action()) {
+            case BLOCK -> {
+                log.warn("AntiFraud blocked: rule={}, merchant={}, amount={}", verdict.rule(), merchantId, req.amount());
+                throw new ResponseStatusException(HttpStatus.PAYMENT_REQUIRED, verdict.reason());
             }
+            case REVIEW -> log.warn("AntiFraud review: rule={}, merchant={}, amount={}", verdict.rule(), merchantId, req.amount());
+            case WARN -> log.info("AntiFraud warn: rule={}, merchant={}, amount={}", verdict.rule(), merchantId, req.amount());
+            case ALLOW -> {}
+        }
+        return verdict;
+    }
+
+    /**
+     * Reads a rule definition in the layout of {@code fiadopay.antifraud} ({@code rules},
+     * {@code velocity}), as YAML or JSON. Durations accept the same forms as application.yml.
+     * Unknown keys, an empty document and one that is not a mapping are rejected, so a typo or a
+     * half-written file cannot install an empty rule set.
+     */
+    public static AntiFraudProperties parse(byte[] content) {
+        try {
+            var sources = new YamlPropertySourceLoader().load("antifraud-rules", new ByteArrayResource(content));
+            boolean empty = true;
+            for (var source : sources) {
+                var properties = (Map<?, ?>) source.getSource();
+                // YAML puts a document that is a bare scalar under this key
+                if (properties.containsKey("document")) throw new IllegalArgumentException("the document is not a mapping");
+                if (!properties.isEmpty()) empty = false;
+            }
+            if (empty) throw new IllegalArgumentException("the document is empty");
+            return new Binder(ConfigurationPropertySources.from(sources))
+                    .bindOrCreate("", Bindable.of(AntiFraudProperties.class), new NoUnboundElementsBindHandler(BindHandler.DEFAULT));
+        } catch (Exception e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid anti-fraud rules: " + rootMessage(e));
+        }
+    }
+
+    /** Compiles {@code definition} and makes it the live rule set. */
+    public synchronized Map<String, Object> apply(AntiFraudProperties definition, String source) {
+        try {
+            var set = install(definition, source);
+            log.info("AntiFraud rules v{} applied from {}", set.version, source);
+            return set.describe();
+        } catch (IllegalStateException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        }
+    }
+
+    /** Makes a previous version live again, as a new version. */
+    public synchronized Map<String, Object> rollback(long version) {
+        var old = history.get(version);
+        if (old == null) throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Unknown rules version " + version);
+        return apply(old.definition, "rollback:v" + version);
+    }
+
+    /** Runs {@code definition} in shadow next to the live set, with fresh divergence counts. */
+    public synchronized Map<String, Object> stageShadow(AntiFraudProperties definition, String source) {
+        try {
+            var set = AntiFraudRuleSet.compile(lastVersion + 1, source, annotated, definition, live.get(), null);
+            lastVersion++;
+            var outcomes = new LongAdder[16];
+            for (int i = 0; i < outcomes.length; i++) outcomes[i] = new LongAdder();
+            shadow.set(new Shadow(set, outcomes, Instant.now()));
+            log.info("AntiFraud rules v{} running in shadow ({})", set.version, source);
+            return shadowReport();
+        } catch (IllegalStateException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
         }
     }
+
+    /** Makes the shadow candidate live; its velocity windows are kept. */
+    public synchronized Map<String, Object> promoteShadow() {
+        var s = shadow.getAndSet(null);
+        if (s == null) throw new ResponseStatusException(HttpStatus.NOT_FOUND, "No shadow rules");
+        var set = AntiFraudRuleSet.compile(++lastVersion, "promoted:v" + s.rules().version, annotated,
+                s.rules().definition, s.rules(), registry);
+        publish(set);
+        log.info("AntiFraud shadow v{} promoted as v{}", s.rules().version, set.version);
+        return set.describe();
+    }
+
+    public synchronized void dropShadow() {
+        if (shadow.getAndSet(null) == null) throw new ResponseStatusException(HttpStatus.NOT_FOUND, "No shadow rules");
+    }
+
+    public Map<String, Object> describeLive() {
+        return live.get().describe();
+    }
+
+    /** Shadow rules plus how many checks each (live, shadow) action pair got, or 404. */
+    public Map<String, Object> shadowReport() {
+        var s = shadow.get();
+        if (s == null) throw new ResponseStatusException(HttpStatus.NOT_FOUND, "No shadow rules");
+        var actions = Action.values();
+        long evaluated = 0, diverged = 0;
+        var outcomes = new LinkedHashMap<String, Long>();
+        for (var l : actions) {
+            for (var c : actions) {
+                long n = s.outcomes()[l.ordinal() * 4 + c.ordinal()].sum();
+                evaluated += n;
+                if (l == c) continue;
+                diverged += n;
+                if (n > 0) outcomes.put(l.name().toLowerCase(Locale.ROOT) + "->" + c.name().toLowerCase(Locale.ROOT), n);
+            }
+        }
+        var out = new LinkedHashMap<String, Object>();
+        out.put("liveVersion", live.get().version);
+        out.put("since", s.since());
+        out.put("evaluated", evaluated);
+        out.put("diverged", diverged);
+        out.put("divergence", outcomes);
+        out.put("candidate", s.rules().describe());
+        return out;
+    }
+
+    public synchronized List<Map<String, Object>> history() {
+        var out = new ArrayList<Map<String, Object>>();
+        for (var set : history.values()) {
+            var m = new LinkedHashMap<String, Object>();
+            m.put("version", set.version);
+            m.put("source", set.source);
+            m.put("loadedAt", set.loadedAt);
+            m.put("live", set == live.get());
+            out.add(m);
+        }
+        return out;
+    }
+
+    public long getVersion() { return live.get().version; }
+
+    public long getShadowDiverged() {
+        var s = shadow.get();
+        if (s == null) return 0;
+        long n = 0;
+        for (int i = 0; i < s.outcomes().length; i++) {
+            if (i / 4 != i % 4) n += s.outcomes()[i].sum();
+        }
+        return n;
+    }
+
+    private synchronized AntiFraudRuleSet install(AntiFraudProperties definition, String source) {
+        var set = AntiFraudRuleSet.compile(lastVersion + 1, source, annotated, definition, live.get(), registry);
+        lastVersion++;
+        publish(set);
+        return set;
+    }
+
+    private void publish(AntiFraudRuleSet set) {
+        live.set(set);
+        history.put(set.version, set);
+        if (history.size() > HISTORY) history.remove(history.keySet().iterator().next());
+    }
+
+    private void purgeIdleWindows() {
+        long now = System.nanoTime() - origin;
+        live.get().purgeIdleWindows(now);
+        var s = shadow.get();
+        if (s != null) s.rules().purgeIdleWindows(now);
+    }
+
+    private static String rootMessage(Throwable e) {
+        while (e.getCause() != null) e = e.getCause();
+        return e.getMessage();
+    }
 }
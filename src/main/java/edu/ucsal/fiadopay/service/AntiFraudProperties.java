@@ -1,5 +1,7 @@
 package edu.ucsal.fiadopay.service;
 
+import java.math.BigDecimal;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -11,19 +13,57 @@ import org.springframework.stereotype.Component;
 public class AntiFraudProperties {
     public static class Rule {
         private String name;
-        private double threshold = 1000.0;
+        private BigDecimal threshold;    // required
         private String action = "block"; // block, warn, review
+        private String method;   // CARD, PIX, DEBIT, BOLETO; null = any
+        private String currency; // null = any
 
         public String getName() { return name; }
         public void setName(String name) { this.name = name; }
-        public double getThreshold() { return threshold; }
-        public void setThreshold(double threshold) { this.threshold = threshold; }
+        public BigDecimal getThreshold() { return threshold; }
+        public void setThreshold(BigDecimal threshold) { this.threshold = threshold; }
         public String getAction() { return action; }
         public void setAction(String action) { this.action = action; }
+        public String getMethod() { return method; }
+        public void setMethod(String method) { this.method = method; }
+        public String getCurrency() { return currency; }
+        public void setCurrency(String currency) { this.currency = currency; }
+    }
+
+    /** Per-merchant limit over a sliding window; a payment that would cross it triggers the action. */
+    public static class Velocity {
+        private String name;
+        private Duration window = Duration.ofMinutes(1);
+        private int buckets = 10;         // window resolution
+        private long maxCount;            // 0 = no count limit
+        private BigDecimal maxAmount;     // null = no amount limit
+        private String action = "block";
+        private String method;
+        private String currency;
+
+        public String getName() { return name; }
+        public void setName(String name) { this.name = name; }
+        public Duration getWindow() { return window; }
+        public void setWindow(Duration window) { this.window = window; }
+        public int getBuckets() { return buckets; }
+        public void setBuckets(int buckets) { this.buckets = buckets; }
+        public long getMaxCount() { return maxCount; }
+        public void setMaxCount(long maxCount) { this.maxCount = maxCount; }
+        public BigDecimal getMaxAmount() { return maxAmount; }
+        public void setMaxAmount(BigDecimal maxAmount) { this.maxAmount = maxAmount; }
+        public String getAction() { return action; }
+        public void setAction(String action) { this.action = action; }
+        public String getMethod() { return method; }
+        public void setMethod(String method) { this.method = method; }
+        public String getCurrency() { return currency; }
+        public void setCurrency(String currency) { this.currency = currency; }
     }
 
     private List<Rule> rules = new ArrayList<>();
+    private List<Velocity> velocity = new ArrayList<>();
 
     public List<Rule> getRules() { return rules; }
     public void setRules(List<Rule> rules) { this.rules = rules; }
+    public List<Velocity> getVelocity() { return velocity; }
+    public void setVelocity(List<Velocity> velocity) { this.velocity = velocity; }
 }
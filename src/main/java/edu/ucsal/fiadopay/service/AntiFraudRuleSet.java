@@ -0,0 +1,353 @@
+package edu.ucsal.fiadopay.service;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Function;
+
+import edu.ucsal.fiadopay.service.AntiFraudChecker.Action;
+import edu.ucsal.fiadopay.service.AntiFraudChecker.Verdict;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * One immutable, compiled version of the anti-fraud rules: threshold rules in flat arrays sorted
+ * by threshold (amounts in cents, method filters as a bitmask) plus velocity rules. Evaluating it
+ * allocates nothing; only the per-merchant velocity windows are mutable, and they are carried
+ * over to the next version when a velocity rule keeps its name and window.
+ */
+final class AntiFraudRuleSet {
+
+    static final String[] METHODS = {"CARD", "PIX", "DEBIT", "BOLETO"};
+
+    /**
+     * Per-merchant counters over {@code buckets} slots of {@code bucketNanos} each. Buckets are
+     * reset lazily by the first add of a new epoch; an add racing that reset can be lost, so
+     * counts are approximate at bucket boundaries.
+     */
+    private static final class Window {
+        final AtomicLongArray epochs;
+        final AtomicLongArray counts;
+        final AtomicLongArray amounts;
+        volatile long lastEpoch;
+
+        Window(int buckets) {
+            epochs = new AtomicLongArray(buckets);
+            counts = new AtomicLongArray(buckets);
+            amounts = new AtomicLongArray(buckets);
+            for (int i = 0; i < buckets; i++) epochs.set(i, Long.MIN_VALUE);
+        }
+
+        /** Whether {@code count}/{@code sum} plus what the window holds for {@code epoch} passes a limit. */
+        boolean exceeds(long epoch, long count, long sum, long maxCount, long maxAmount) {
+            int n = epochs.length();
+            for (int i = 0; i < n; i++) {
+                long e = epochs.get(i);
+                if (e > epoch - n && e <= epoch) {
+                    count += counts.get(i);
+                    sum += amounts.get(i);
+                }
+            }
+            return count > maxCount || sum > maxAmount || sum < 0;
+        }
+
+        void add(long epoch, long amount) {
+            int i = (int) (epoch % epochs.length());
+            long e = epochs.get(i);
+            if (e < epoch && epochs.compareAndSet(i, e, epoch)) {
+                counts.set(i, 0);
+                amounts.set(i, 0);
+            }
+            counts.incrementAndGet(i);
+            amounts.addAndGet(i, amount);
+            lastEpoch = epoch;
+        }
+
+        /** Takes back an {@link #add} unless its bucket has been reset to a newer epoch since. */
+        void remove(long epoch, long amount) {
+            int i = (int) (epoch % epochs.length());
+            if (epochs.get(i) != epoch) return;
+            counts.decrementAndGet(i);
+            amounts.addAndGet(i, -amount);
+        }
+    }
+
+    private static final class VelocityRule {
+        final String name;
+        final int methods;
+        final String currency;
+        final long bucketNanos;
+        final int buckets;
+        final long maxCount;
+        final long maxAmount;
+        final Verdict verdict;
+        final Counter hits;     // null in a shadow set
+        final Map<Long, Window> windows;
+        final boolean record;   // false when a shadow set only reads the live windows
+        final Function<Long, Window> newWindow;
+
+        VelocityRule(String name, int methods, String currency, long bucketNanos, int buckets, long maxCount,
+                     long maxAmount, Verdict verdict, Counter hits, Map<Long, Window> windows, boolean record) {
+            this.name = name;
+            this.methods = methods;
+            this.currency = currency;
+            this.bucketNanos = bucketNanos;
+            this.buckets = buckets;
+            this.maxCount = maxCount;
+            this.maxAmount = maxAmount;
+            this.verdict = verdict;
+            this.hits = hits;
+            this.windows = windows;
+            this.record = record;
+            this.newWindow = k -> new Window(buckets);
+        }
+    }
+
+    private record ThresholdRule(String name, long threshold, int methods, String currency, Action action) {}
+
+    final long version;
+    final String source;
+    final Instant loadedAt;
+    final AntiFraudProperties definition;
+
+    private final long[] thresholds;
+    private final int[] thresholdMethods;          // bitmask over METHODS, 0 = any
+    private final String[] thresholdCurrencies;    // null = any
+    private final Verdict[] thresholdVerdicts;
+    private final Counter[] thresholdHits;         // null in a shadow set
+    private final VelocityRule[] velocityRules;
+
+    /**
+     * Compiles {@code annotated} rules overlaid by {@code definition} (a config rule with the same
+     * name wins). A live set ({@code registry != null}) counts hits and takes over the velocity
+     * windows of {@code previous}; a shadow set shares the live windows of unchanged velocity
+     * rules read-only and keeps its own for the rest. Throws {@link IllegalStateException} on an
+     * invalid rule.
+     */
+    static AntiFraudRuleSet compile(long version, String source, List<AntiFraudProperties.Rule> annotated,
+                                    AntiFraudProperties definition, AntiFraudRuleSet previous, MeterRegistry registry) {
+        return new AntiFraudRuleSet(version, source, annotated, definition, previous, registry);
+    }
+
+    private AntiFraudRuleSet(long version, String source, List<AntiFraudProperties.Rule> annotated,
+                             AntiFraudProperties definition, AntiFraudRuleSet previous, MeterRegistry registry) {
+        this.version = version;
+        this.source = source;
+        this.loadedAt = Instant.now();
+        this.definition = definition;
+
+        var byName = new LinkedHashMap<String, ThresholdRule>();
+        for (var r : annotated) byName.put(r.getName(), threshold(r));
+        for (var r : definition.getRules()) byName.put(required(r.getName()), threshold(r));
+
+        var sorted = new ArrayList<>(byName.values());
+        sorted.sort(Comparator.comparingLong(ThresholdRule::threshold));
+        int n = sorted.size();
+        thresholds = new long[n];
+        thresholdMethods = new int[n];
+        thresholdCurrencies = new String[n];
+        thresholdVerdicts = new Verdict[n];
+        thresholdHits = new Counter[n];
+        for (int i = 0; i < n; i++) {
+            var r = sorted.get(i);
+            thresholds[i] = r.threshold();
+            thresholdMethods[i] = r.methods();
+            thresholdCurrencies[i] = r.currency();
+            thresholdVerdicts[i] = new Verdict(r.action(), r.name(), "AntiFraud(" + r.name() + "): amount exceeds threshold");
+            thresholdHits[i] = registry == null ? null : hits(registry, r.name(), r.action());
+        }
+
+        var velocity = new ArrayList<VelocityRule>();
+        for (var v : definition.getVelocity()) {
+            var name = required(v.getName());
+            if (v.getBuckets() < 1 || v.getWindow() == null || v.getWindow().toNanos() < v.getBuckets()) {
+                throw new IllegalStateException("AntiFraud velocity rule " + name + ": invalid window/buckets");
+            }
+            var action = action(name, v.getAction());
+            long bucketNanos = v.getWindow().toNanos() / v.getBuckets();
+            var same = previous == null ? null : previous.velocityRule(name, bucketNanos, v.getBuckets());
+            boolean record = registry != null || same == null;
+            velocity.add(new VelocityRule(name, methods(name, v.getMethod()), currency(v.getCurrency()),
+                    bucketNanos, v.getBuckets(),
+                    v.getMaxCount() > 0 ? v.getMaxCount() : Long.MAX_VALUE,
+                    v.getMaxAmount() != null ? toMinor(v.getMaxAmount()) : Long.MAX_VALUE,
+                    new Verdict(action, name, "AntiFraud(" + name + "): velocity limit exceeded"),
+                    registry == null ? null : hits(registry, name, action),
+                    same != null ? same.windows : new ConcurrentHashMap<>(), record));
+        }
+        velocityRules = velocity.toArray(VelocityRule[]::new);
+    }
+
+    /**
+     * Most severe verdict for the payment; records it in the velocity windows unless it is
+     * blocked. {@code now} is nanoseconds on the checker's monotonic clock.
+     *
+     * <p>Windows this set records into are reserved before they are checked and released again
+     * on a block, so concurrent payments each see the others and cannot all slip under a limit
+     * together. The price is the opposite error: a payment that is blocked anyway holds its
+     * reservation for that instant, so a racing one may be refused by a count it never joins.
+     */
+    Verdict evaluate(Long merchantId, long amount, int method, String currency, long now) {
+        Verdict verdict = Verdict.ALLOW;
+
+        // ascending thresholds: stop at the first one the amount does not exceed
+        for (int i = 0; i < thresholds.length && amount > thresholds[i]; i++) {
+            if (!applies(thresholdMethods[i], thresholdCurrencies[i], method, currency)) continue;
+            if (thresholdHits[i] != null) thresholdHits[i].increment();
+            if (thresholdVerdicts[i].action().compareTo(verdict.action()) > 0) verdict = thresholdVerdicts[i];
+        }
+
+        if (merchantId == null || velocityRules.length == 0 || verdict.action() == Action.BLOCK) return verdict;
+        for (var v : velocityRules) {
+            if (!applies(v.methods, v.currency, method, currency)) continue;
+            long epoch = now / v.bucketNanos;
+            var w = v.windows.get(merchantId);
+            boolean exceeded;
+            if (v.record) {
+                if (w == null) w = v.windows.computeIfAbsent(merchantId, v.newWindow);
+                w.add(epoch, amount);
+                exceeded = w.exceeds(epoch, 0, 0, v.maxCount, v.maxAmount);
+            } else {
+                exceeded = w != null
+                        ? w.exceeds(epoch, 1, amount, v.maxCount, v.maxAmount)
+                        : 1 > v.maxCount || amount > v.maxAmount;
+            }
+            if (!exceeded) continue;
+            if (v.hits != null) v.hits.increment();
+            if (v.verdict.action().compareTo(verdict.action()) > 0) verdict = v.verdict;
+        }
+        if (verdict.action() == Action.BLOCK) {
+            for (var v : velocityRules) {
+                if (!v.record || !applies(v.methods, v.currency, method, currency)) continue;
+                var w = v.windows.get(merchantId);
+                if (w != null) w.remove(now / v.bucketNanos, amount);
+            }
+        }
+        return verdict;
+    }
+
+    void purgeIdleWindows(long now) {
+        for (var v : velocityRules) {
+            if (!v.record) continue;
+            long epoch = now / v.bucketNanos;
+            v.windows.values().removeIf(w -> epoch - w.lastEpoch >= v.buckets);
+        }
+    }
+
+    boolean hasVelocityRules() { return velocityRules.length > 0; }
+
+    Map<String, Object> describe() {
+        var rules = new ArrayList<Map<String, Object>>();
+        for (int i = 0; i < thresholds.length; i++) {
+            var r = new LinkedHashMap<String, Object>();
+            r.put("name", thresholdVerdicts[i].rule());
+            r.put("threshold", BigDecimal.valueOf(thresholds[i], 2));
+            r.put("action", thresholdVerdicts[i].action().name().toLowerCase(Locale.ROOT));
+            r.put("method", methodName(thresholdMethods[i]));
+            r.put("currency", thresholdCurrencies[i]);
+            rules.add(r);
+        }
+        var velocity = new ArrayList<Map<String, Object>>();
+        for (var v : velocityRules) {
+            var r = new LinkedHashMap<String, Object>();
+            r.put("name", v.name);
+            r.put("windowMs", v.bucketNanos * v.buckets / 1_000_000);
+            r.put("buckets", v.buckets);
+            r.put("maxCount", v.maxCount == Long.MAX_VALUE ? null : v.maxCount);
+            r.put("maxAmount", v.maxAmount == Long.MAX_VALUE ? null : BigDecimal.valueOf(v.maxAmount, 2));
+            r.put("action", v.verdict.action().name().toLowerCase(Locale.ROOT));
+            r.put("method", methodName(v.methods));
+            r.put("currency", v.currency);
+            r.put("merchants", v.windows.size());
+            velocity.add(r);
+        }
+        var out = new LinkedHashMap<String, Object>();
+        out.put("version", version);
+        out.put("source", source);
+        out.put("loadedAt", loadedAt);
+        out.put("rules", rules);
+        out.put("velocity", velocity);
+        return out;
+    }
+
+    private VelocityRule velocityRule(String name, long bucketNanos, int buckets) {
+        for (var v : velocityRules) {
+            if (v.name.equals(name) && v.bucketNanos == bucketNanos && v.buckets == buckets) return v;
+        }
+        return null;
+    }
+
+    private static boolean applies(int methods, String ruleCurrency, int method, String currency) {
+        return (methods == 0 || (methods & method) != 0)
+                && (ruleCurrency == null || ruleCurrency.equalsIgnoreCase(currency));
+    }
+
+    static int methodBit(String method) {
+        if (method == null) return 0;
+        for (int i = 0; i < METHODS.length; i++) {
+            if (METHODS[i].equalsIgnoreCase(method)) return 1 << i;
+        }
+        return 0;
+    }
+
+    private static String methodName(int bits) {
+        return bits == 0 ? null : METHODS[Integer.numberOfTrailingZeros(bits)];
+    }
+
+    /** Amount in cents, rounded up; saturates instead of overflowing. */
+    static long toMinor(BigDecimal amount) {
+        try {
+            return amount.movePointRight(2).setScale(0, RoundingMode.CEILING).longValueExact();
+        } catch (ArithmeticException e) {
+            return amount.signum() < 0 ? Long.MIN_VALUE : Long.MAX_VALUE;
+        }
+    }
+
+    private static ThresholdRule threshold(AntiFraudProperties.Rule r) {
+        if (r.getThreshold() == null) throw new IllegalStateException("AntiFraud rule " + r.getName() + ": threshold is required");
+        return new ThresholdRule(r.getName(), toMinor(r.getThreshold()), methods(r.getName(), r.getMethod()),
+                currency(r.getCurrency()), action(r.getName(), r.getAction()));
+    }
+
+    private static Counter hits(MeterRegistry registry, String rule, Action action) {
+        return Counter.builder("fiadopay.antifraud.hits")
+                .description("Anti-fraud rule triggers")
+                .tag("rule", rule)
+                .tag("action", action.name().toLowerCase(Locale.ROOT))
+                .register(registry);
+    }
+
+    private static String required(String name) {
+        if (name == null || name.isBlank()) throw new IllegalStateException("AntiFraud rule without a name");
+        return name;
+    }
+
+    private static Action action(String rule, String action) {
+        try {
+            var a = Action.valueOf(action.trim().toUpperCase(Locale.ROOT));
+            if (a != Action.ALLOW) return a;
+        } catch (RuntimeException e) {
+            // fall through
+        }
+        throw new IllegalStateException("AntiFraud rule " + rule + ": unknown action '" + action + "' (block, review, warn)");
+    }
+
+    private static int methods(String rule, String method) {
+        if (method == null || method.isBlank()) return 0;
+        int bit = methodBit(method.trim());
+        if (bit == 0) throw new IllegalStateException("AntiFraud rule " + rule + ": unknown method '" + method + "'");
+        return bit;
+    }
+
+    private static String currency(String currency) {
+        return currency == null || currency.isBlank() ? null : currency.trim();
+    }
+}
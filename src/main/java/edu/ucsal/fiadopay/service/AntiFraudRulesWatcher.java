@@ -0,0 +1,94 @@
+package edu.ucsal.fiadopay.service;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchService;
+import java.util.Arrays;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Reloads anti-fraud rules from {@code fiadopay.antifraud.rules-file} (YAML or JSON, same layout
+ * as {@code fiadopay.antifraud}) whenever the file changes, either straight into the live set or,
+ * with {@code rules-file-mode: shadow}, as a shadow candidate. A file that fails to parse or
+ * compile is logged and ignored; the rules in force stay as they are.
+ */
+@Component
+public class AntiFraudRulesWatcher implements InitializingBean, DisposableBean {
+
+    private static final Logger log = LoggerFactory.getLogger(AntiFraudRulesWatcher.class);
+    private static final Path CONFIG_MAP_DATA = Path.of("..data");
+
+    private final AntiFraudChecker checker;
+    private final String file;
+    private final boolean shadow;
+    private WatchService watcher;
+    private byte[] lastLoaded;
+
+    public AntiFraudRulesWatcher(AntiFraudChecker checker,
+                                 @Value("${fiadopay.antifraud.rules-file:}") String file,
+                                 @Value("${fiadopay.antifraud.rules-file-mode:live}") String mode) {
+        this.checker = checker;
+        this.file = file;
+        this.shadow = "shadow".equalsIgnoreCase(mode);
+    }
+
+    @Override
+    public void afterPropertiesSet() throws IOException {
+        if (file == null || file.isBlank()) return;
+        var path = Path.of(file).toAbsolutePath();
+        if (Files.exists(path)) reload(path);
+
+        watcher = path.getFileSystem().newWatchService();
+        // watch the directory: editors and config maps replace the file rather than writing it in place
+        path.getParent().register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        Thread.ofPlatform().daemon().name("fiado-antifraud-watch").start(() -> watch(path));
+        log.info("Watching anti-fraud rules file {} ({})", path, shadow ? "shadow" : "live");
+    }
+
+    @Override
+    public void destroy() throws IOException {
+        if (watcher != null) watcher.close();
+    }
+
+    private void watch(Path path) {
+        try {
+            while (true) {
+                var key = watcher.take();
+                boolean changed = false;
+                for (var event : key.pollEvents()) {
+                    // a config map volume swaps its ..data symlink; the file itself fires no event
+                    if (path.getFileName().equals(event.context()) || CONFIG_MAP_DATA.equals(event.context())) changed = true;
+                }
+                key.reset();
+                if (changed) reload(path);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ClosedWatchServiceException e) {
+            // shutting down
+        }
+    }
+
+    private void reload(Path path) {
+        try {
+            var content = Files.readAllBytes(path);
+            if (Arrays.equals(content, lastLoaded)) return; // one save usually fires several events
+            var definition = AntiFraudChecker.parse(content);
+            var source = "file:" + path.getFileName();
+            if (shadow) checker.stageShadow(definition, source);
+            else checker.apply(definition, source);
+            lastLoaded = content;
+        } catch (IOException | RuntimeException e) {
+            log.warn("Anti-fraud rules file {} not applied: {}", path, e.getMessage());
+        }
+    }
+}
@@ -1,20 +1,53 @@
 package edu.ucsal.fiadopay.service;
 
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
 import org.springframework.stereotype.Component;
 
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Webhook delivery counters and attempt latency. Counters are {@link LongAdder}s read by
+ * Micrometer only at scrape time, so the delivery path pays for an uncontended add.
+ */
 @Component
 public class DeliveryMetrics {
-    private final AtomicLong attempts = new AtomicLong();
-    private final AtomicLong successes = new AtomicLong();
-    private final AtomicLong failures = new AtomicLong();
+    private final LongAdder attempts = new LongAdder();
+    private final LongAdder successes = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final Timer succeeded;
+    private final Timer failed;
+
+    public DeliveryMetrics(MeterRegistry registry) {
+        FunctionCounter.builder("fiadopay.webhook.attempts", attempts, LongAdder::sum)
+                .description("Webhook delivery attempts").register(registry);
+        FunctionCounter.builder("fiadopay.webhook.results", successes, LongAdder::sum)
+                .tag("result", "success").register(registry);
+        FunctionCounter.builder("fiadopay.webhook.results", failures, LongAdder::sum)
+                .tag("result", "failure").register(registry);
+        this.succeeded = attemptTimer(registry, "success");
+        this.failed = attemptTimer(registry, "failure");
+    }
+
+    private static Timer attemptTimer(MeterRegistry registry, String result) {
+        return Timer.builder("fiadopay.webhook.attempt")
+                .description("Webhook HTTP attempt latency, send to response")
+                .tag("result", result)
+                .register(registry);
+    }
+
+    public void incAttempt(){ attempts.increment(); }
+    public void incSuccess(){ successes.increment(); }
+    public void incFailure(){ failures.increment(); }
 
-    public void incAttempt(){ attempts.incrementAndGet(); }
-    public void incSuccess(){ successes.incrementAndGet(); }
-    public void incFailure(){ failures.incrementAndGet(); }
+    public void recordAttempt(long nanos, boolean success){
+        (success ? succeeded : failed).record(nanos, TimeUnit.NANOSECONDS);
+    }
 
-    public long getAttempts(){ return attempts.get(); }
-    public long getSuccesses(){ return successes.get(); }
-    public long getFailures(){ return failures.get(); }
+    public long getAttempts(){ return attempts.sum(); }
+    public long getSuccesses(){ return successes.sum(); }
+    public long getFailures(){ return failures.sum(); }
 }
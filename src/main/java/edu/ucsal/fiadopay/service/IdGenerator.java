@@ -0,0 +1,15 @@
+package edu.ucsal.fiadopay.service;
+
+/**
+ * Source of the ids of payments, webhook events and refunds (the caller adds the {@code pay_},
+ * {@code evt_}, {@code ref_} prefix). The default is {@link SnowflakeIdGenerator}; a {@code @Primary}
+ * bean of this type replaces it.
+ */
+public interface IdGenerator {
+
+    /**
+     * A new id, unique across nodes configured with distinct node ids. Ids from one node sort
+     * after every id it issued before, both as strings and in time.
+     */
+    String next();
+}
@@ -0,0 +1,109 @@
+package edu.ucsal.fiadopay.service;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import edu.ucsal.fiadopay.controller.PaymentResponse;
+
+/**
+ * In-process idempotency layer keyed by (merchantId, Idempotency-Key). The first request for a
+ * key installs a future; concurrent duplicates wait on that same future and replays inside the
+ * window get the cached response without reaching the database.
+ */
+@Component
+public class IdempotencyCache implements InitializingBean {
+
+    private record Key(Long merchantId, String idempotencyKey) {}
+
+    private record Entry(CompletableFuture<PaymentResponse> response, long expiresAtNanos) {
+        boolean expired(long now) { return now - expiresAtNanos >= 0; }
+    }
+
+    private final Map<Key, Entry> entries = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService scheduler;
+    private final long ttlNanos;
+    private final int maxEntries;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public IdempotencyCache(ScheduledExecutorService fiadoScheduler,
+                            @Value("${fiadopay.idempotency.ttl-ms:600000}") long ttlMs,
+                            @Value("${fiadopay.idempotency.max-entries:100000}") int maxEntries) {
+        this.scheduler = fiadoScheduler;
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMs);
+        this.maxEntries = maxEntries;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        long period = Math.max(1000L, TimeUnit.NANOSECONDS.toMillis(ttlNanos) / 2);
+        scheduler.scheduleWithFixedDelay(this::purgeExpired, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Returns the response already produced (or being produced) for this key, or runs
+     * {@code create} exactly once per key and window. A failed attempt is not cached.
+     */
+    public PaymentResponse execute(Long merchantId, String idempotencyKey, Supplier<PaymentResponse> create) {
+        var key = new Key(merchantId, idempotencyKey);
+        while (true) {
+            var now = System.nanoTime();
+            var existing = entries.get(key);
+            if (existing != null) {
+                if (!existing.expired(now)) {
+                    hits.increment();
+                    return await(existing.response());
+                }
+                entries.remove(key, existing);
+                continue;
+            }
+            if (entries.size() >= maxEntries) {
+                // over capacity: fall back to the database lookup rather than grow without bound
+                misses.increment();
+                return create.get();
+            }
+            var mine = new Entry(new CompletableFuture<>(), now + ttlNanos);
+            if (entries.putIfAbsent(key, mine) != null) continue;
+
+            misses.increment();
+            try {
+                var response = create.get();
+                mine.response().complete(response);
+                return response;
+            } catch (RuntimeException e) {
+                entries.remove(key, mine);
+                mine.response().completeExceptionally(e);
+                throw e;
+            }
+        }
+    }
+
+    private static PaymentResponse await(CompletableFuture<PaymentResponse> f) {
+        try {
+            return f.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException re) throw re;
+            throw e;
+        }
+    }
+
+    private void purgeExpired() {
+        var now = System.nanoTime();
+        entries.values().removeIf(e -> e.response().isDone() && e.expired(now));
+    }
+
+    public long getHits() { return hits.sum(); }
+    public long getMisses() { return misses.sum(); }
+    public int getSize() { return entries.size(); }
+}
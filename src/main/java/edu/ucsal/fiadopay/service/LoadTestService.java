@@ -0,0 +1,505 @@
+package edu.ucsal.fiadopay.service;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.env.Environment;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import edu.ucsal.fiadopay.controller.LoadTestRequest;
+
+/**
+ * Built-in load test, only present with {@code fiadopay.loadtest.enabled=true}. A run creates
+ * merchants and tokens through the public HTTP API of this same node, then fires payment creates
+ * at a fixed rate from virtual threads. The schedule is open-loop: each request has an intended
+ * start time and its latency is measured from it, so a stalled server shows up in the percentiles
+ * instead of silently lowering the rate. Past {@code max-in-flight} a request is skipped rather than
+ * queued; it still counts in the create percentiles, at the slowest latency measured, which are then
+ * only a lower bound. A share of the payments is refunded once their APPROVED
+ * webhook arrives, since only settled payments can be refunded.
+ * <p>
+ * The merchants' webhooks point at {@code /sink/loadtest} on this node, which feeds
+ * {@link #onWebhook}: it checks the HMAC, counts duplicates and measures the latency from sending
+ * the create to receiving the first webhook of the payment. With {@code base-url} the load goes
+ * to another node (which must share the signing keys) and only the generator runs here. Latencies go into
+ * HdrHistograms (microseconds, 3 significant digits); the report has p50/p99/p999 and throughput.
+ */
+@Component
+@ConditionalOnProperty(name = "fiadopay.loadtest.enabled", havingValue = "true")
+public class LoadTestService implements DisposableBean {
+
+    private static final Logger log = LoggerFactory.getLogger(LoadTestService.class);
+
+    private static final String[] METHODS = {"CARD", "PIX", "DEBIT", "BOLETO"};
+
+    private enum State { RUNNING, DRAINING, FINISHED, FAILED }
+
+    private static final class Run {
+        final long id;
+        final int rps;
+        final int durationSeconds;
+        final int merchants;
+        final double refundRatio;
+        final Instant startedAt = Instant.now();
+        volatile State state = State.RUNNING;
+        volatile String error;
+        volatile long loadStart, loadEnd;
+
+        final Histogram create = new ConcurrentHistogram(3);
+        final Histogram refund = new ConcurrentHistogram(3);
+        final Histogram webhook = new ConcurrentHistogram(3);
+        final LongAdder sent = new LongAdder();
+        final LongAdder ok = new LongAdder();
+        final LongAdder skipped = new LongAdder();
+        final LongAdder refundsSent = new LongAdder();
+        final LongAdder refundsOk = new LongAdder();
+        final LongAdder refundsCompleted = new LongAdder(); // refund.updated webhooks
+        final Map<Integer, LongAdder> errors = new ConcurrentHashMap<>(); // HTTP status, 0 = I/O error
+        final AtomicInteger inFlight = new AtomicInteger();
+
+        final LongAdder received = new LongAdder();       // requests
+        final LongAdder receivedEvents = new LongAdder(); // events; more than requests when batched
+        final LongAdder validSignatures = new LongAdder();
+        final LongAdder invalidSignatures = new LongAdder();
+        final LongAdder duplicates = new LongAdder();
+        final LongAdder unmatched = new LongAdder();
+        final AtomicLong firstWebhook = new AtomicLong();
+        final AtomicLong lastWebhook = new AtomicLong();
+        final Map<String, Long> created = new ConcurrentHashMap<>(); // paymentId -> nanoTime the create was sent
+        final Map<String, Long> early = new ConcurrentHashMap<>();   // paymentId -> webhook seen before the 201
+        final Set<String> delivered = ConcurrentHashMap.newKeySet(); // paymentIds with a first webhook
+        final Set<String> events = ConcurrentHashMap.newKeySet();    // event ids and paymentId:status
+        final Map<String, String> refundable = new ConcurrentHashMap<>(); // paymentId -> token, picked for a refund
+        final Set<String> approved = ConcurrentHashMap.newKeySet();       // APPROVED webhook seen, refund not sent
+        volatile String base;
+
+        Run(long id, int rps, int durationSeconds, int merchants, double refundRatio) {
+            this.id = id;
+            this.rps = rps;
+            this.durationSeconds = durationSeconds;
+            this.merchants = merchants;
+            this.refundRatio = refundRatio;
+        }
+
+        void error(int status) {
+            errors.computeIfAbsent(status, k -> new LongAdder()).increment();
+        }
+    }
+
+    private final WebhookSigner signer;
+    private final ObjectMapper mapper;
+    private final Environment env;
+    private final ExecutorService workers = Executors.newThreadPerTaskExecutor(
+            Thread.ofVirtual().name("fiado-loadtest-", 0).factory());
+    private final HttpClient http = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(Duration.ofSeconds(5))
+            .executor(workers)
+            .build();
+    private final AtomicLong runIds = new AtomicLong();
+    private volatile Run current;
+
+    @Value("${fiadopay.loadtest.base-url:}") String baseUrl;
+    @Value("${fiadopay.loadtest.sink-url:}") String sinkUrl;
+    @Value("${fiadopay.loadtest.rps:100}") int defaultRps;
+    @Value("${fiadopay.loadtest.duration-seconds:30}") int defaultDuration;
+    @Value("${fiadopay.loadtest.merchants:10}") int defaultMerchants;
+    @Value("${fiadopay.loadtest.refund-ratio:0.1}") double defaultRefundRatio;
+    @Value("${fiadopay.loadtest.drain-seconds:15}") int drainSeconds;
+    @Value("${fiadopay.loadtest.max-in-flight:2000}") int maxInFlight;
+    @Value("${fiadopay.loadtest.run-on-startup:false}") boolean runOnStartup;
+
+    public LoadTestService(WebhookSigner signer, ObjectMapper mapper, Environment env) {
+        this.signer = signer;
+        this.mapper = mapper;
+        this.env = env;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void startOnReady() {
+        if (runOnStartup) start(new LoadTestRequest(null, null, null, null));
+    }
+
+    @Override
+    public void destroy() {
+        workers.shutdownNow();
+    }
+
+    /** Starts a run in the background; 409 while another one is still going. */
+    public synchronized Map<String, Object> start(LoadTestRequest req) {
+        var running = current;
+        if (running != null && (running.state == State.RUNNING || running.state == State.DRAINING)) {
+            throw new ResponseStatusException(HttpStatus.CONFLICT, "Load test " + running.id + " is still running");
+        }
+        var run = new Run(runIds.incrementAndGet(),
+                req.rps() != null ? req.rps() : defaultRps,
+                req.durationSeconds() != null ? req.durationSeconds() : defaultDuration,
+                req.merchants() != null ? req.merchants() : defaultMerchants,
+                req.refundRatio() != null ? req.refundRatio() : defaultRefundRatio);
+        current = run;
+        // a platform thread paces the schedule; parkNanos on a virtual thread is coarser under load
+        Thread.ofPlatform().daemon().name("fiado-loadtest-pacer").start(() -> execute(run));
+        log.info("Load test {} started: {} rps for {}s over {} merchants", run.id, run.rps, run.durationSeconds, run.merchants);
+        return report(run);
+    }
+
+    /** Report of the current or last run; 404 if there has been none. */
+    public Map<String, Object> report() {
+        var run = current;
+        if (run == null) throw new ResponseStatusException(HttpStatus.NOT_FOUND, "No load test has run");
+        return report(run);
+    }
+
+    /** Records a webhook delivered to {@code /sink/loadtest}. */
+    public void onWebhook(byte[] body, String signature, String keyId) {
+        long now = System.nanoTime();
+        var run = current;
+        if (run == null) return;
+        run.received.increment();
+        run.firstWebhook.compareAndSet(0, now);
+        run.lastWebhook.set(now);
+
+        if (validSignature(body, signature, keyId)) run.validSignatures.increment();
+        else run.invalidSignatures.increment();
+
+        JsonNode json;
+        try {
+            json = mapper.readTree(body);
+        } catch (IOException e) {
+            run.unmatched.increment();
+            return;
+        }
+        // merchants with batching get a JSON array of events under one signature
+        if (json.isArray()) json.forEach(event -> onEvent(run, event, now));
+        else onEvent(run, json, now);
+    }
+
+    private void onEvent(Run run, JsonNode event, long now) {
+        run.receivedEvents.increment();
+        var eventId = event.path("id").asText();
+        var paymentId = event.path("data").path("paymentId").asText();
+        var refundId = event.path("data").path("refundId").asText(null);
+        var status = event.path("data").path("status").asText();
+        // the same event re-delivered, or a second event for the same transition
+        var subject = refundId != null ? refundId : paymentId;
+        if (!run.events.add(eventId) | !run.events.add(subject + ":" + status)) {
+            run.duplicates.increment();
+            return;
+        }
+        if (refundId != null) {
+            run.refundsCompleted.increment();
+            return;
+        }
+
+        if (!run.delivered.contains(paymentId)) firstWebhook(run, paymentId, now);
+        if ("APPROVED".equals(status)) {
+            // like the first webhook, this can beat the 201 that says whether to refund
+            run.approved.add(paymentId);
+            var token = run.refundable.get(paymentId);
+            if (token != null && run.approved.remove(paymentId)) refundLater(run, token, paymentId);
+        }
+    }
+
+    /**
+     * The webhook can beat the 201 back to the generator when the node is busy, so whichever side
+     * comes second records the latency: both publish their half, then try to claim the other.
+     */
+    private void firstWebhook(Run run, String paymentId, long receivedAt) {
+        var sentAt = run.created.get(paymentId);
+        if (sentAt == null) {
+            if (run.early.putIfAbsent(paymentId, receivedAt) != null) return;
+            sentAt = run.created.get(paymentId);
+            if (sentAt == null || !run.early.remove(paymentId, receivedAt)) return;
+        }
+        if (run.delivered.add(paymentId)) run.webhook.recordValue(TimeUnit.NANOSECONDS.toMicros(receivedAt - sentAt));
+    }
+
+    private void created(Run run, String paymentId, long sentAt) {
+        run.created.put(paymentId, sentAt);
+        var receivedAt = run.early.remove(paymentId);
+        if (receivedAt != null && run.delivered.add(paymentId)) {
+            run.webhook.recordValue(TimeUnit.NANOSECONDS.toMicros(receivedAt - sentAt));
+        }
+    }
+
+    private boolean validSignature(byte[] body, String signature, String keyId) {
+        if (signature == null || keyId == null) return false;
+        try {
+            var expected = signer.sign(keyId, ByteBuffer.wrap(body)).value();
+            return MessageDigest.isEqual(expected.getBytes(StandardCharsets.US_ASCII), signature.getBytes(StandardCharsets.US_ASCII));
+        } catch (IllegalStateException e) {
+            return false; // unknown key id
+        }
+    }
+
+    private void execute(Run run) {
+        try {
+            var self = "http://localhost:" + env.getProperty("local.server.port", env.getProperty("server.port", "8080"));
+            var base = baseUrl == null || baseUrl.isBlank() ? self : baseUrl;
+            run.base = base;
+            var sink = sinkUrl == null || sinkUrl.isBlank() ? self + "/sink/loadtest" : sinkUrl;
+            var tokens = createMerchants(run, base, sink);
+
+            long period = TimeUnit.SECONDS.toNanos(1) / run.rps;
+            long start = System.nanoTime();
+            long end = start + TimeUnit.SECONDS.toNanos(run.durationSeconds);
+            run.loadStart = start;
+            for (long i = 0; ; i++) {
+                long intended = start + i * period;
+                if (intended >= end) break;
+                long wait;
+                while ((wait = intended - System.nanoTime()) > 0) LockSupport.parkNanos(wait);
+                if (run.inFlight.get() >= maxInFlight) {
+                    run.skipped.increment(); // the server is not keeping up; counted, not queued
+                    continue;
+                }
+                run.inFlight.incrementAndGet();
+                var token = tokens.get((int) (i % tokens.size()));
+                workers.execute(() -> {
+                    try {
+                        createPayment(run, base, token, intended);
+                    } finally {
+                        run.inFlight.decrementAndGet();
+                    }
+                });
+            }
+            while (run.inFlight.get() > 0 && System.nanoTime() - end < TimeUnit.SECONDS.toNanos(drainSeconds)) {
+                Thread.sleep(50);
+            }
+            run.loadEnd = System.nanoTime();
+
+            run.state = State.DRAINING;
+            long drainUntil = System.nanoTime() + TimeUnit.SECONDS.toNanos(drainSeconds);
+            while ((run.delivered.size() < run.created.size() || run.inFlight.get() > 0
+                    || run.refundsCompleted.sum() < run.refundsOk.sum()) && System.nanoTime() < drainUntil) {
+                Thread.sleep(100);
+            }
+            run.state = State.FINISHED;
+        } catch (Exception e) {
+            run.error = e.toString();
+            run.state = State.FAILED;
+            if (run.loadEnd == 0) run.loadEnd = System.nanoTime();
+            log.warn("Load test {} failed: {}", run.id, e.toString());
+        }
+        try {
+            log.info("Load test {} {}: {}", run.id, run.state, mapper.writeValueAsString(report(run)));
+        } catch (IOException e) {
+            // the report is still available from the admin endpoint
+        }
+    }
+
+    private List<String> createMerchants(Run run, String base, String sink) throws IOException, InterruptedException {
+        var tokens = new ArrayList<String>(run.merchants);
+        for (int i = 0; i < run.merchants; i++) {
+            var merchant = mapper.readTree(post(base + "/fiadopay/admin/merchants", null, Map.of(
+                    "name", "loadtest-" + run.id + "-" + i + "-" + System.currentTimeMillis(),
+                    "webhookUrl", sink), 201));
+            var token = mapper.readTree(post(base + "/fiadopay/auth/token", null, Map.of(
+                    "client_id", merchant.path("clientId").asText(),
+                    "client_secret", merchant.path("clientSecret").asText()), 200));
+            tokens.add(token.path("access_token").asText());
+        }
+        return tokens;
+    }
+
+    private void createPayment(Run run, String base, String token, long intended) {
+        var rnd = ThreadLocalRandom.current();
+        var method = METHODS[rnd.nextInt(METHODS.length)];
+        var body = new LinkedHashMap<String, Object>();
+        body.put("method", method);
+        body.put("currency", "BRL");
+        body.put("amount", rnd.nextInt(100, 50_000) / 100.0);
+        if ("CARD".equals(method)) body.put("installments", rnd.nextInt(1, 13));
+        run.sent.increment();
+        long sentAt = System.nanoTime();
+        try {
+            var res = send(base + "/fiadopay/gateway/payments", token, body);
+            run.create.recordValue(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - intended));
+            if (res.statusCode() != 201) {
+                run.error(res.statusCode());
+                return;
+            }
+            run.ok.increment();
+            var paymentId = mapper.readTree(res.body()).path("id").asText();
+            created(run, paymentId, sentAt);
+
+            if (rnd.nextDouble() < run.refundRatio) {
+                run.refundable.put(paymentId, token);
+                if (run.approved.remove(paymentId)) refundLater(run, token, paymentId);
+            }
+        } catch (IOException e) {
+            run.error(0);
+            log.debug("Load test request failed: {}", e.toString());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void refundLater(Run run, String token, String paymentId) {
+        run.refundable.remove(paymentId);
+        run.inFlight.incrementAndGet();
+        workers.execute(() -> {
+            try {
+                refund(run, token, paymentId);
+            } finally {
+                run.inFlight.decrementAndGet();
+            }
+        });
+    }
+
+    private void refund(Run run, String token, String paymentId) {
+        // half of them partial, so both the PARTIALLY_REFUNDED and REFUNDED paths get load
+        var body = new LinkedHashMap<String, Object>();
+        body.put("paymentId", paymentId);
+        if (ThreadLocalRandom.current().nextBoolean()) body.put("amount", 0.01);
+        run.refundsSent.increment();
+        long t0 = System.nanoTime();
+        try {
+            var res = send(run.base + "/fiadopay/gateway/refunds", token, body, "refund-" + paymentId);
+            run.refund.recordValue(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - t0));
+            if (res.statusCode() == 202) run.refundsOk.increment();
+            else run.error(res.statusCode());
+        } catch (IOException e) {
+            run.error(0);
+            log.debug("Load test refund failed: {}", e.toString());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private String post(String url, String token, Object body, int expected) throws IOException, InterruptedException {
+        var res = send(url, token, body);
+        if (res.statusCode() != expected) {
+            throw new IOException("POST " + url + " answered " + res.statusCode() + ": " + res.body());
+        }
+        return res.body();
+    }
+
+    private HttpResponse<String> send(String url, String token, Object body) throws IOException, InterruptedException {
+        return send(url, token, body, null);
+    }
+
+    private HttpResponse<String> send(String url, String token, Object body, String idempotencyKey)
+            throws IOException, InterruptedException {
+        var req = HttpRequest.newBuilder(URI.create(url))
+                .timeout(Duration.ofSeconds(30))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofByteArray(mapper.writeValueAsBytes(body)));
+        if (token != null) req.header("Authorization", "Bearer " + token);
+        if (idempotencyKey != null) req.header("Idempotency-Key", idempotencyKey);
+        return http.send(req.build(), HttpResponse.BodyHandlers.ofString());
+    }
+
+    private Map<String, Object> report(Run run) {
+        long now = System.nanoTime();
+        long loadNanos = run.loadStart == 0 ? 0 : (run.loadEnd != 0 ? run.loadEnd : now) - run.loadStart;
+        long first = run.firstWebhook.get(), last = run.lastWebhook.get();
+
+        var out = new LinkedHashMap<String, Object>();
+        out.put("id", run.id);
+        out.put("state", run.state);
+        if (run.error != null) out.put("error", run.error);
+        out.put("startedAt", run.startedAt);
+        out.put("targetRps", run.rps);
+        out.put("durationSeconds", run.durationSeconds);
+        out.put("merchants", run.merchants);
+        out.put("refundRatio", run.refundRatio);
+
+        var errors = new TreeMap<Integer, Long>();
+        run.errors.forEach((k, v) -> errors.put(k, v.sum()));
+        var requests = new LinkedHashMap<String, Object>();
+        requests.put("sent", run.sent.sum());
+        requests.put("created", run.ok.sum());
+        requests.put("skipped", run.skipped.sum());
+        requests.put("errors", errors);
+        requests.put("throughputPerSecond", perSecond(run.ok.sum(), loadNanos));
+        requests.put("latencyMs", percentiles(run.create, run.skipped.sum()));
+        out.put("payments", requests);
+
+        var refunds = new LinkedHashMap<String, Object>();
+        refunds.put("sent", run.refundsSent.sum());
+        refunds.put("accepted", run.refundsOk.sum());
+        refunds.put("completed", run.refundsCompleted.sum());
+        refunds.put("latencyMs", percentiles(run.refund, 0));
+        out.put("refunds", refunds);
+
+        var webhooks = new LinkedHashMap<String, Object>();
+        webhooks.put("received", run.received.sum());
+        webhooks.put("events", run.receivedEvents.sum());
+        webhooks.put("validSignatures", run.validSignatures.sum());
+        webhooks.put("invalidSignatures", run.invalidSignatures.sum());
+        webhooks.put("duplicates", run.duplicates.sum());
+        webhooks.put("unmatched", run.unmatched.sum() + run.early.size());
+        webhooks.put("paymentsWithoutWebhook", Math.max(0, run.created.size() - run.delivered.size()));
+        webhooks.put("throughputPerSecond", perSecond(run.received.sum(), last - first));
+        webhooks.put("createdToReceivedMs", percentiles(run.webhook, 0));
+        out.put("webhooks", webhooks);
+        return out;
+    }
+
+    /**
+     * {@code skipped} requests never got a latency, but leaving them out would hide exactly the
+     * moments the server fell behind (coordinated omission). They are counted at the slowest
+     * latency measured, and the percentiles flagged as a lower bound.
+     */
+    private static Map<String, Object> percentiles(Histogram h, long skipped) {
+        if (skipped > 0) {
+            h = h.copy();
+            h.recordValueWithCount(h.getMaxValue(), skipped);
+        }
+        var out = new LinkedHashMap<String, Object>();
+        out.put("count", h.getTotalCount());
+        if (skipped > 0) out.put("lowerBound", true);
+        out.put("p50", millis(h.getValueAtPercentile(50.0)));
+        out.put("p99", millis(h.getValueAtPercentile(99.0)));
+        out.put("p999", millis(h.getValueAtPercentile(99.9)));
+        out.put("max", millis(h.getMaxValue()));
+        return out;
+    }
+
+    private static double millis(long micros) {
+        return Math.round(micros / 10.0) / 100.0;
+    }
+
+    private static double perSecond(long count, long nanos) {
+        if (nanos <= 0) return 0;
+        return Math.round(count * 1e11 / nanos) / 100.0;
+    }
+}
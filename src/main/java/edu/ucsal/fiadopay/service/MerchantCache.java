@@ -0,0 +1,95 @@
+package edu.ucsal.fiadopay.service;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import edu.ucsal.fiadopay.domain.Merchant;
+import edu.ucsal.fiadopay.repo.MerchantRepository;
+
+/**
+ * Bounded, TTL-based read-through cache of {@link MerchantSnapshot}s in front of
+ * {@link MerchantRepository}. Writers must call {@link #invalidate} after changing a
+ * merchant. A load that overlaps an invalidation is returned but not
+ * cached, so a merchant read before the write cannot be installed after it.
+ */
+@Component
+public class MerchantCache {
+
+    private record Entry(MerchantSnapshot snapshot, long expiresAtNanos) {}
+
+    // entries looked at to pick a victim when the cache is full
+    private static final int EVICTION_SAMPLE = 8;
+
+    private final MerchantRepository merchants;
+    private final Map<Long, Entry> entries = new ConcurrentHashMap<>();
+    private final int maxSize;
+    private final long ttlNanos;
+    // bumped by every invalidation, under the map's lock for that id
+    private final AtomicLong invalidations = new AtomicLong();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public MerchantCache(MerchantRepository merchants,
+                         @Value("${fiadopay.merchant-cache.max-size:10000}") int maxSize,
+                         @Value("${fiadopay.merchant-cache.ttl-ms:60000}") long ttlMs) {
+        this.merchants = merchants;
+        this.maxSize = maxSize;
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMs);
+    }
+
+    public Optional<MerchantSnapshot> get(Long id) {
+        if (id == null) return Optional.empty();
+        var now = System.nanoTime();
+        var e = entries.get(id);
+        if (e != null && now - e.expiresAtNanos() < 0) {
+            hits.increment();
+            return Optional.of(e.snapshot());
+        }
+        misses.increment();
+        long seen = invalidations.get();
+        // unknown ids are not cached, so garbage tokens cannot flood the cache
+        return merchants.findById(id).map(m -> install(m, seen));
+    }
+
+    public void invalidate(Long id) {
+        entries.compute(id, (k, v) -> {
+            invalidations.incrementAndGet();
+            return null;
+        });
+    }
+
+    // seen: the invalidation count before the merchant was read
+    private MerchantSnapshot install(Merchant m, long seen) {
+        var snapshot = MerchantSnapshot.of(m);
+        if (entries.size() >= maxSize && !entries.containsKey(m.getId())) evict(System.nanoTime());
+        entries.compute(m.getId(), (k, v) -> invalidations.get() == seen
+                ? new Entry(snapshot, System.nanoTime() + ttlNanos) : v);
+        return snapshot;
+    }
+
+    private void evict(long now) {
+        // drop the first expired entry of a small sample, else the one in it closest to expiring
+        Map.Entry<Long, Entry> victim = null;
+        int sampled = 0;
+        for (var it = entries.entrySet().iterator(); it.hasNext() && sampled < EVICTION_SAMPLE; sampled++) {
+            var e = it.next();
+            if (victim == null || e.getValue().expiresAtNanos() - victim.getValue().expiresAtNanos() < 0) victim = e;
+            if (now - victim.getValue().expiresAtNanos() >= 0) break;
+        }
+        if (victim != null && entries.remove(victim.getKey(), victim.getValue())) evictions.increment();
+    }
+
+    public long getHits() { return hits.sum(); }
+    public long getMisses() { return misses.sum(); }
+    public long getEvictions() { return evictions.sum(); }
+    public int getSize() { return entries.size(); }
+}
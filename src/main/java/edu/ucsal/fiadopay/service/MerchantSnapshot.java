@@ -0,0 +1,21 @@
+package edu.ucsal.fiadopay.service;
+
+import edu.ucsal.fiadopay.domain.Merchant;
+
+/** Immutable view of the merchant fields needed on the request path. */
+public record MerchantSnapshot(Long id, String clientId, Merchant.Status status, String webhookUrl,
+                               String webhookSecret, Integer webhookSecretVersion,
+                               Integer webhookBatchSize, Integer webhookBatchWindowMs) {
+
+    public static MerchantSnapshot of(Merchant m) {
+        return new MerchantSnapshot(m.getId(), m.getClientId(), m.getStatus(), m.getWebhookUrl(),
+                m.getWebhookSecret(), m.getWebhookSecretVersion(),
+                m.getWebhookBatchSize(), m.getWebhookBatchWindowMs());
+    }
+
+    public boolean isActive() { return status == Merchant.Status.ACTIVE; }
+
+    public boolean hasWebhook() { return webhookUrl != null && !webhookUrl.isBlank(); }
+
+    public boolean batchesWebhooks() { return webhookBatchSize != null && webhookBatchSize > 1; }
+}
@@ -0,0 +1,201 @@
+package edu.ucsal.fiadopay.service;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+/**
+ * In-process fan-out of payment status changes to Server-Sent Events subscribers. Publishing
+ * never blocks: each subscriber has a bounded buffer, and when a slow client lets it fill up the
+ * oldest events are dropped and the client gets a {@code dropped} event with the count, so it
+ * knows to re-sync through the listing API. Writes happen on virtual threads, one flush at a
+ * time per subscriber.
+ */
+@Component
+public class PaymentEventBus implements InitializingBean, DisposableBean {
+
+    public record Event(String paymentId, String status, Instant occurredAt) {}
+
+    private record Dropped(long count) {}
+
+    private final class Subscriber {
+        final Long merchantId;
+        final String paymentId; // null = every payment of the merchant
+        final SseEmitter emitter;
+        final ArrayBlockingQueue<Event> buffer = new ArrayBlockingQueue<>(bufferSize);
+        final AtomicBoolean scheduled = new AtomicBoolean();
+        final AtomicLong dropped = new AtomicLong();
+
+        Subscriber(Long merchantId, String paymentId, SseEmitter emitter) {
+            this.merchantId = merchantId;
+            this.paymentId = paymentId;
+            this.emitter = emitter;
+        }
+    }
+
+    private final Map<Long, Set<Subscriber>> subscribers = new ConcurrentHashMap<>();
+    private final ExecutorService writers = Executors.newThreadPerTaskExecutor(
+            Thread.ofVirtual().name("fiado-sse-", 0).factory());
+    private final ScheduledExecutorService scheduler;
+    private final int bufferSize;
+    private final long timeoutMs;
+    private final long heartbeatMs;
+    private final int maxPerMerchant;
+    private final LongAdder droppedTotal = new LongAdder();
+    private volatile ScheduledFuture<?> heartbeatTask;
+
+    public PaymentEventBus(ScheduledExecutorService fiadoScheduler,
+                           @Value("${fiadopay.events.buffer-size:256}") int bufferSize,
+                           @Value("${fiadopay.events.timeout-ms:1800000}") long timeoutMs,
+                           @Value("${fiadopay.events.heartbeat-ms:15000}") long heartbeatMs,
+                           @Value("${fiadopay.events.max-subscribers-per-merchant:32}") int maxPerMerchant) {
+        this.scheduler = fiadoScheduler;
+        this.bufferSize = bufferSize;
+        this.timeoutMs = timeoutMs;
+        this.heartbeatMs = heartbeatMs;
+        this.maxPerMerchant = maxPerMerchant;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        // also how dead connections are noticed: the write fails and the subscriber is removed
+        heartbeatTask = scheduler.scheduleWithFixedDelay(this::heartbeat, heartbeatMs, heartbeatMs, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void destroy() {
+        if (heartbeatTask != null) heartbeatTask.cancel(false);
+        subscribers.values().forEach(set -> set.forEach(s -> s.emitter.complete()));
+        writers.shutdown();
+    }
+
+    /**
+     * Registers a subscriber for the merchant's events, optionally only those of one payment.
+     * {@code initial} (may return null) is read after registering, so a change that lands while
+     * subscribing is not lost.
+     */
+    public SseEmitter subscribe(Long merchantId, String paymentId, Supplier<Event> initial) {
+        var emitter = new SseEmitter(timeoutMs);
+        var s = new Subscriber(merchantId, paymentId, emitter);
+        subscribers.compute(merchantId, (k, set) -> {
+            if (set == null) set = ConcurrentHashMap.newKeySet();
+            if (set.size() >= maxPerMerchant) {
+                throw new ResponseStatusException(HttpStatus.TOO_MANY_REQUESTS, "Too many event streams for this merchant");
+            }
+            set.add(s);
+            return set;
+        });
+        emitter.onCompletion(() -> remove(s));
+        emitter.onTimeout(() -> { remove(s); emitter.complete(); });
+        emitter.onError(e -> remove(s));
+        final Event first;
+        try {
+            first = initial.get();
+        } catch (RuntimeException e) {
+            remove(s);
+            throw e;
+        }
+        if (first != null) offer(s, first);
+        return emitter;
+    }
+
+    /** Queues the event for every matching subscriber of the merchant; never blocks. */
+    public void publish(Long merchantId, Event event) {
+        var set = subscribers.get(merchantId);
+        if (set == null) return;
+        for (var s : set) {
+            if (s.paymentId != null && !s.paymentId.equals(event.paymentId())) continue;
+            offer(s, event);
+        }
+    }
+
+    private void offer(Subscriber s, Event event) {
+        while (!s.buffer.offer(event)) {
+            if (s.buffer.poll() != null) {
+                s.dropped.incrementAndGet();
+                droppedTotal.increment();
+            }
+        }
+        schedule(s);
+    }
+
+    private void schedule(Subscriber s) {
+        if (s.scheduled.compareAndSet(false, true)) {
+            try {
+                writers.execute(() -> flush(s));
+            } catch (RuntimeException e) {
+                s.scheduled.set(false); // shutting down
+            }
+        }
+    }
+
+    private void flush(Subscriber s) {
+        try {
+            long dropped = s.dropped.getAndSet(0);
+            if (dropped > 0) {
+                s.emitter.send(SseEmitter.event().name("dropped").data(new Dropped(dropped), MediaType.APPLICATION_JSON));
+            }
+            Event e;
+            while ((e = s.buffer.poll()) != null) {
+                s.emitter.send(SseEmitter.event().name("payment.status").data(e, MediaType.APPLICATION_JSON));
+            }
+        } catch (IOException | IllegalStateException e) {
+            remove(s);
+            return;
+        } finally {
+            s.scheduled.set(false);
+        }
+        // an event may have arrived between the last poll and clearing the flag
+        if (!s.buffer.isEmpty() || s.dropped.get() > 0) schedule(s);
+    }
+
+    private void heartbeat() {
+        for (var set : subscribers.values()) {
+            for (var s : set) {
+                writers.execute(() -> {
+                    try {
+                        s.emitter.send(SseEmitter.event().comment("keep-alive"));
+                    } catch (IOException | IllegalStateException e) {
+                        remove(s);
+                    }
+                });
+            }
+        }
+    }
+
+    private void remove(Subscriber s) {
+        subscribers.computeIfPresent(s.merchantId, (k, set) -> {
+            set.remove(s);
+            return set.isEmpty() ? null : set;
+        });
+    }
+
+    public int getSubscribers() {
+        int n = 0;
+        for (var set : subscribers.values()) n += set.size();
+        return n;
+    }
+
+    public long getDropped() { return droppedTotal.sum(); }
+}
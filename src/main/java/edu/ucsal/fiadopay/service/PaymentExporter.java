@@ -0,0 +1,164 @@
+package edu.ucsal.fiadopay.service;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.concurrent.Semaphore;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import edu.ucsal.fiadopay.domain.Payment;
+import edu.ucsal.fiadopay.repo.PaymentRepository;
+
+/**
+ * Writes a merchant's payments as NDJSON or CSV straight from a JDBC cursor to the response
+ * stream. Rows are written as they are fetched, so memory stays at one fetch window however
+ * large the export is. Each export holds a JDBC connection for its whole run, so at most
+ * {@code fiadopay.export.max-concurrent} run at once.
+ */
+@Component
+public class PaymentExporter {
+
+    public enum Format {
+        NDJSON("application/x-ndjson", "ndjson"), CSV("text/csv", "csv");
+
+        public static Format parse(String value) {
+            return valueOf(value.trim().toUpperCase());
+        }
+
+        public final String contentType;
+        public final String extension;
+
+        Format(String contentType, String extension) {
+            this.contentType = contentType;
+            this.extension = extension;
+        }
+    }
+
+    private static final String[] COLUMNS = { "id", "status", "method", "amount", "currency", "installments",
+            "monthlyInterest", "totalWithInterest", "refundedAmount", "createdAt", "updatedAt", "idempotencyKey", "metadataOrderId" };
+
+    private final PaymentRepository payments;
+    private final JsonFactory jsonFactory;
+    private final int fetchSize;
+    private final Semaphore slots;
+
+    public PaymentExporter(PaymentRepository payments, ObjectMapper objectMapper,
+                           @Value("${fiadopay.export.fetch-size:500}") int fetchSize,
+                           @Value("${fiadopay.export.max-concurrent:2}") int maxConcurrent) {
+        this.payments = payments;
+        this.jsonFactory = objectMapper.getFactory();
+        this.fetchSize = fetchSize;
+        this.slots = new Semaphore(maxConcurrent);
+    }
+
+    /** Takes an export slot, or throws 429 when all are in use. Every acquire needs a {@link #release}. */
+    public void acquire() {
+        if (!slots.tryAcquire()) {
+            throw new ResponseStatusException(HttpStatus.TOO_MANY_REQUESTS, "Too many exports running");
+        }
+    }
+
+    public void release() {
+        slots.release();
+    }
+
+    public void export(Long merchantId, Payment.Status status, Instant from, Instant to, Format format, OutputStream out)
+            throws IOException {
+        try {
+            if (format == Format.CSV) writeCsv(merchantId, status, from, to, out);
+            else writeNdjson(merchantId, status, from, to, out);
+        } catch (UncheckedIOException e) {
+            throw e.getCause(); // client went away mid-export
+        }
+    }
+
+    private void writeNdjson(Long merchantId, Payment.Status status, Instant from, Instant to, OutputStream out)
+            throws IOException {
+        try (var g = jsonFactory.createGenerator(out)) {
+            g.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            g.setRootValueSeparator(null); // lines are terminated explicitly below
+            payments.streamByMerchant(merchantId, status, from, to, fetchSize, p -> {
+                try {
+                    g.writeStartObject();
+                    g.writeStringField("id", p.getId());
+                    g.writeStringField("status", p.getStatus().name());
+                    g.writeStringField("method", p.getMethod());
+                    g.writeNumberField("amount", p.getAmount());
+                    g.writeStringField("currency", p.getCurrency());
+                    g.writeNumberField("installments", p.getInstallments());
+                    if (p.getMonthlyInterest() == null) g.writeNullField("monthlyInterest");
+                    else g.writeNumberField("monthlyInterest", p.getMonthlyInterest());
+                    g.writeNumberField("totalWithInterest", p.getTotalWithInterest());
+                    g.writeNumberField("refundedAmount", p.getRefundedAmount());
+                    g.writeStringField("createdAt", p.getCreatedAt().toString());
+                    g.writeStringField("updatedAt", p.getUpdatedAt().toString());
+                    g.writeStringField("idempotencyKey", p.getIdempotencyKey());
+                    g.writeStringField("metadataOrderId", p.getMetadataOrderId());
+                    g.writeEndObject();
+                    g.writeRaw('\n');
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        }
+    }
+
+    private void writeCsv(Long merchantId, Payment.Status status, Instant from, Instant to, OutputStream out)
+            throws IOException {
+        var w = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 8192);
+        w.write(String.join(",", COLUMNS));
+        w.write("\r\n");
+        payments.streamByMerchant(merchantId, status, from, to, fetchSize, p -> {
+            try {
+                w.write(p.getId()); w.write(',');
+                w.write(p.getStatus().name()); w.write(',');
+                csv(w, p.getMethod()); w.write(',');
+                w.write(p.getAmount().toPlainString()); w.write(',');
+                csv(w, p.getCurrency()); w.write(',');
+                w.write(String.valueOf(p.getInstallments())); w.write(',');
+                if (p.getMonthlyInterest() != null) w.write(p.getMonthlyInterest().toString());
+                w.write(',');
+                w.write(p.getTotalWithInterest().toPlainString()); w.write(',');
+                w.write(p.getRefundedAmount().toPlainString()); w.write(',');
+                w.write(p.getCreatedAt().toString()); w.write(',');
+                w.write(p.getUpdatedAt().toString()); w.write(',');
+                csv(w, p.getIdempotencyKey()); w.write(',');
+                csv(w, p.getMetadataOrderId());
+                w.write("\r\n");
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        w.flush();
+    }
+
+    /** RFC 4180: quote fields containing a separator, quote or line break; null is an empty field. */
+    private static void csv(Writer w, String value) throws IOException {
+        if (value == null) return;
+        boolean quote = false;
+        for (int i = 0; i < value.length() && !quote; i++) {
+            char c = value.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            w.write(value);
+            return;
+        }
+        w.write('"');
+        w.write(value.replace("\"", "\"\""));
+        w.write('"');
+    }
+}
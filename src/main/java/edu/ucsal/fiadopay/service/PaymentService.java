@@ -1,77 +1,128 @@
 package edu.ucsal.fiadopay.service;
 
+import java.io.OutputStream;
 import java.math.BigDecimal;
-import java.math.RoundingMode;
-import java.net.URI;
-import java.net.http.HttpClient;
-import java.net.http.HttpRequest;
-import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
 import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.UUID;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.ScheduledExecutorService;
+import java.util.Objects;
 import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.server.ResponseStatusException;
-
-import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import edu.ucsal.fiadopay.annotations.AntiFraud;
+import edu.ucsal.fiadopay.config.StageLimiter;
+import edu.ucsal.fiadopay.controller.BatchPaymentItem;
+import edu.ucsal.fiadopay.controller.BatchPaymentResponse;
+import edu.ucsal.fiadopay.controller.BatchPaymentResult;
+import edu.ucsal.fiadopay.controller.PaymentPage;
 import edu.ucsal.fiadopay.controller.PaymentRequest;
 import edu.ucsal.fiadopay.controller.PaymentResponse;
-import edu.ucsal.fiadopay.domain.Merchant;
+import edu.ucsal.fiadopay.controller.RefundRequest;
+import edu.ucsal.fiadopay.controller.RefundResponse;
 import edu.ucsal.fiadopay.domain.Payment;
+import edu.ucsal.fiadopay.domain.Refund;
 import edu.ucsal.fiadopay.domain.WebhookDelivery;
-import edu.ucsal.fiadopay.repo.MerchantRepository;
+import edu.ucsal.fiadopay.payment.PaymentHandlerRegistry;
+import edu.ucsal.fiadopay.payment.PaymentMethodType;
 import edu.ucsal.fiadopay.repo.PaymentRepository;
+import edu.ucsal.fiadopay.repo.PaymentShards;
+import edu.ucsal.fiadopay.repo.RefundRepository;
 import edu.ucsal.fiadopay.repo.WebhookDeliveryRepository;
+import edu.ucsal.fiadopay.service.PipelineMetrics.Save;
 
 @Service
-public class PaymentService {
-  private final MerchantRepository merchants;
+public class PaymentService implements InitializingBean, DisposableBean {
+  private static final Logger log = LoggerFactory.getLogger(PaymentService.class);
+  // a refund can only draw on a settled payment with balance left
+  private static final List<Payment.Status> REFUNDABLE = List.of(Payment.Status.APPROVED, Payment.Status.PARTIALLY_REFUNDED);
+
+  private final MerchantCache merchantCache;
   private final PaymentRepository payments;
+  private final RefundRepository refunds;
+  private final PaymentShards shards;
   private final WebhookDeliveryRepository deliveries;
-  private final ObjectMapper objectMapper;
-  private final ExecutorService executor;
-  private final ScheduledExecutorService scheduler;
+  private final WebhookEventWriter eventWriter;
   private final AntiFraudChecker antiFraudChecker;
-  private final java.util.Map<String, edu.ucsal.fiadopay.payment.PaymentHandler> handlers;
-  private final WebhookDeliveryCircuitCircuitBreaker circuitBreaker;
-  private final edu.ucsal.fiadopay.service.DeliveryMetrics deliveryMetrics;
+  private final PaymentHandlerRegistry handlers;
+  private final WebhookOutboxRelay outboxRelay;
+  private final StageLimiter stageLimiter;
+  private final SettlementScheduler settlementScheduler;
+  private final IdempotencyCache idempotencyCache;
+  private final WebhookSigner signer;
+  private final PipelineMetrics metrics;
+  private final PaymentExporter exporter;
+  private final PaymentEventBus eventBus;
+  private final IdGenerator ids;
 
-  @Value("${fiadopay.webhook-secret}") String secret;
-  @Value("${fiadopay.processing-delay-ms}") long delay;
   @Value("${fiadopay.failure-rate}") double failRate;
+  @Value("${fiadopay.refund.failure-rate:0.0}") double refundFailRate;
+  @Value("${fiadopay.batch.max-items:100}") int batchMaxItems;
+  @Value("${fiadopay.listing.max-limit:200}") int listMaxLimit;
+  @Value("${fiadopay.webhook.batch.default-window-ms:1000}") long batchDefaultWindowMs;
 
-  public PaymentService(MerchantRepository merchants,
+  public PaymentService(MerchantCache merchantCache,
                         PaymentRepository payments,
+                        RefundRepository refunds,
+                        PaymentShards shards,
                         WebhookDeliveryRepository deliveries,
-                        ObjectMapper objectMapper,
+                        WebhookEventWriter eventWriter,
                         AntiFraudChecker antiFraudChecker,
-                        ExecutorService fiadoExecutor,
-                        ScheduledExecutorService fiadoScheduler,
-                        java.util.Map<String, edu.ucsal.fiadopay.payment.PaymentHandler> handlers,
-                        WebhookDeliveryCircuitCircuitBreaker circuitBreaker,
-                        edu.ucsal.fiadopay.service.DeliveryMetrics deliveryMetrics) {
-    this.merchants = merchants;
+                        PaymentHandlerRegistry handlers,
+                        WebhookOutboxRelay outboxRelay,
+                        StageLimiter stageLimiter,
+                        SettlementScheduler settlementScheduler,
+                        IdempotencyCache idempotencyCache,
+                        WebhookSigner signer,
+                        PipelineMetrics metrics,
+                        PaymentExporter exporter,
+                        PaymentEventBus eventBus,
+                        IdGenerator ids) {
+    this.merchantCache = merchantCache;
     this.payments = payments;
+    this.refunds = refunds;
+    this.shards = shards;
     this.deliveries = deliveries;
-    this.objectMapper = objectMapper;
+    this.eventWriter = eventWriter;
     this.antiFraudChecker = antiFraudChecker;
-    this.executor = fiadoExecutor;
-    this.scheduler = fiadoScheduler;
     this.handlers = handlers;
-    this.circuitBreaker = circuitBreaker;
-    this.deliveryMetrics = deliveryMetrics;
+    this.outboxRelay = outboxRelay;
+    this.stageLimiter = stageLimiter;
+    this.settlementScheduler = settlementScheduler;
+    this.idempotencyCache = idempotencyCache;
+    this.signer = signer;
+    this.metrics = metrics;
+    this.exporter = exporter;
+    this.eventBus = eventBus;
+    this.ids = ids;
+  }
+
+  // not in the constructor: settleBatch reads the @Value fields, which are only set after it returns
+  @Override
+  public void afterPropertiesSet(){
+    settlementScheduler.start(this::settleBatch);
   }
 
-  private Merchant merchantFromAuth(String auth){
+  private MerchantSnapshot merchantFromAuth(String auth){
     if (auth == null || !auth.startsWith("Bearer FAKE-")) {
       throw new ResponseStatusException(HttpStatus.UNAUTHORIZED);
     }
@@ -82,33 +133,146 @@ public class PaymentService {
     } catch (NumberFormatException ex) {
       throw new ResponseStatusException(HttpStatus.UNAUTHORIZED);
     }
-    var merchant = merchants.findById(id).orElseThrow(() -> new ResponseStatusException(HttpStatus.UNAUTHORIZED));
-    if (merchant.getStatus() != Merchant.Status.ACTIVE) {
+    var merchant = merchantCache.get(id).orElseThrow(() -> new ResponseStatusException(HttpStatus.UNAUTHORIZED));
+    if (!merchant.isActive()) {
       throw new ResponseStatusException(HttpStatus.UNAUTHORIZED);
     }
     return merchant;
   }
 
-  @Transactional
+  // not @Transactional: the idempotency cache must only publish a response once the insert has committed
   @AntiFraud(name = "HighAmount", threshold = 1000.0)
   public PaymentResponse createPayment(String auth, String idemKey, PaymentRequest req){
-    var merchant = merchantFromAuth(auth);
-    var mid = merchant.getId();
+    long start = System.nanoTime();
+    try {
+      var merchant = merchantFromAuth(auth);
+      var mid = merchant.id();
+
+      if (idemKey == null) {
+        antiFraudChecker.check(mid, req);
+        return insertPayment(mid, null, req).payment();
+      }
+      // concurrent duplicates share one in-flight insert; replays are answered from memory
+      // (and are not counted again by the velocity rules)
+      return idempotencyCache.execute(mid, idemKey, () -> {
+        antiFraudChecker.check(mid, req);
+        return insertPayment(mid, idemKey, req).payment();
+      });
+    } finally {
+      metrics.createPayment().record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+  }
 
-    // Anti-fraud quick check based on annotation-configured threshold
-    antiFraudChecker.check(req);
+  // created is false when the key turned out to belong to an existing payment
+  private record Inserted(PaymentResponse payment, boolean created) {}
 
+  private Inserted insertPayment(Long mid, String idemKey, PaymentRequest req){
     if (idemKey != null) {
       var existing = payments.findByIdempotencyKeyAndMerchantId(idemKey, mid);
-      if(existing.isPresent()) return toResponse(existing.get());
+      if(existing.isPresent()) return new Inserted(toResponse(existing.get()), false);
+    }
+
+    var payment = newPayment(mid, idemKey, req);
+
+    try {
+      metrics.save(Save.PAYMENT_INSERT).record(() -> payments.insert(payment));
+    } catch (DataIntegrityViolationException e) {
+      // lost the race on uk_payment_merchant_idempotency (another node, or the cache window expired)
+      if (idemKey == null) throw e;
+      return new Inserted(toResponse(payments.findByIdempotencyKeyAndMerchantId(idemKey, mid).orElseThrow(() -> e)), false);
+    }
+
+    settlementScheduler.schedule(pending(payment));
+
+    return new Inserted(toResponse(payment), true);
+  }
+
+  /**
+   * Creates up to {@code fiadopay.batch.max-items} payments with one merchant lookup, one
+   * idempotency query and one JDBC-batched insert. Each item gets its own result.
+   */
+  public BatchPaymentResponse createPayments(String auth, List<BatchPaymentItem> items){
+    var merchant = merchantFromAuth(auth);
+    var mid = merchant.id();
+    if (items.size() > batchMaxItems) {
+      throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Batch exceeds "+batchMaxItems+" items");
+    }
+
+    var results = new BatchPaymentResult[items.size()];
+    var keys = items.stream().map(BatchPaymentItem::idempotencyKey).filter(Objects::nonNull).distinct().toList();
+    var existing = new HashMap<String,Payment>();
+    if (!keys.isEmpty()) {
+      for (var p : payments.findByMerchantIdAndIdempotencyKeyIn(mid, keys)) existing.put(p.getIdempotencyKey(), p);
+    }
+
+    var fresh = new ArrayList<Payment>(items.size());
+    var freshIndex = new ArrayList<Integer>(items.size());
+    var byKeyInBatch = new HashMap<String,Integer>(); // repeated key inside the same batch -> first occurrence wins
+    for (int i = 0; i < items.size(); i++) {
+      var item = items.get(i);
+      var key = item.idempotencyKey();
+      if (key != null && existing.containsKey(key)) {
+        results[i] = new BatchPaymentResult(i, key, HttpStatus.OK.value(), toResponse(existing.get(key)), null);
+        continue;
+      }
+      if (key != null && byKeyInBatch.putIfAbsent(key, i) != null) continue;
+      try {
+        antiFraudChecker.check(mid, item.payment());
+      } catch (ResponseStatusException e) {
+        results[i] = new BatchPaymentResult(i, key, e.getStatusCode().value(), null, e.getReason());
+        continue;
+      }
+      fresh.add(newPayment(mid, key, item.payment()));
+      freshIndex.add(i);
+    }
+
+    try {
+      metrics.save(Save.PAYMENT_BATCH_INSERT).record(() -> payments.insertAll(fresh));
+    } catch (DataIntegrityViolationException e) {
+      // a concurrent request took one of the keys, or one row is invalid: fall back to item-by-item
+      // inserts. Items stored before a failing one stay stored, so each failure is reported on its
+      // own item instead of failing the batch
+      for (int j = 0; j < fresh.size(); j++) {
+        int i = freshIndex.get(j);
+        var item = items.get(i);
+        try {
+          var inserted = insertPayment(mid, item.idempotencyKey(), item.payment());
+          results[i] = new BatchPaymentResult(i, item.idempotencyKey(),
+              (inserted.created() ? HttpStatus.CREATED : HttpStatus.OK).value(), inserted.payment(), null);
+        } catch (DataIntegrityViolationException ex) {
+          results[i] = new BatchPaymentResult(i, item.idempotencyKey(), HttpStatus.UNPROCESSABLE_ENTITY.value(), null,
+              "Payment rejected by storage constraints");
+        } catch (RuntimeException ex) {
+          log.warn("Batch item {} of merchant {} failed", i, mid, ex);
+          results[i] = new BatchPaymentResult(i, item.idempotencyKey(), HttpStatus.INTERNAL_SERVER_ERROR.value(), null,
+              "Payment could not be stored");
+        }
+      }
+      fresh.clear();
+    }
+    for (int j = 0; j < fresh.size(); j++) {
+      var p = fresh.get(j);
+      settlementScheduler.schedule(pending(p));
+      int i = freshIndex.get(j);
+      results[i] = new BatchPaymentResult(i, p.getIdempotencyKey(), HttpStatus.CREATED.value(), toResponse(p), null);
+    }
+    for (int i = 0; i < results.length; i++) {
+      if (results[i] == null) {
+        var first = results[byKeyInBatch.get(items.get(i).idempotencyKey())];
+        results[i] = new BatchPaymentResult(i, first.idempotencyKey(), first.status(), first.payment(), first.error());
+      }
     }
+    return new BatchPaymentResponse(List.of(results));
+  }
 
-    BigDecimal total = req.amount();
-    // create payment skeleton and let handler adjust fields if present
+  private Payment newPayment(Long mid, String idemKey, PaymentRequest req){
+    var method = PaymentMethodType.parse(req.method());
+    var handler = handlers.forMethod(method);
+    // create payment skeleton and let the method's handler fill installments and totals
     var payment = Payment.builder()
-        .id("pay_"+UUID.randomUUID().toString().substring(0,8))
+        .id("pay_"+shards.tagFor(mid)+ids.next())
         .merchantId(mid)
-        .method(req.method()==null?"":req.method().toUpperCase())
+        .method(method.name())
         .amount(req.amount())
         .currency(req.currency())
         .installments(req.installments()==null?1:req.installments())
@@ -121,164 +285,395 @@ public class PaymentService {
         .metadataOrderId(req.metadataOrderId())
         .build();
 
-    // delegate to a payment method handler if available
-    var method = req.method()==null?"":req.method().toUpperCase();
-    var handlerBean = handlers.values().stream().filter(h -> method.equalsIgnoreCase(h.type())).findFirst().orElse(null);
-    if (handlerBean!=null) {
-      handlerBean.apply(payment, req);
-    } else {
-      if ("CARD".equalsIgnoreCase(req.method()) && req.installments()!=null && req.installments()>1){
-        var base = new BigDecimal("1.01");
-        var factor = base.pow(req.installments());
-        payment.setTotalWithInterest(req.amount().multiply(factor).setScale(2, RoundingMode.HALF_UP));
-        payment.setMonthlyInterest(1.0);
+    handler.apply(payment, req);
+    return payment;
+  }
+
+  public PaymentResponse getPayment(String id){
+    return toResponse(payments.findById(id)
+        .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND)));
+  }
+
+  /**
+   * Lists the merchant's payments newest first with keyset pagination: the cursor is the
+   * (createdAt, id) of the last item returned, so every page is one index range seek.
+   */
+  public PaymentPage listPayments(String auth, String status, Instant from, Instant to, String cursor, int limit){
+    var merchant = merchantFromAuth(auth);
+    if (limit < 1 || limit > listMaxLimit) {
+      throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "limit must be between 1 and "+listMaxLimit);
+    }
+    var st = parseStatus(status);
+    var after = Cursor.decode(cursor);
+
+    // one extra row tells whether there is a next page
+    var rows = payments.findPage(merchant.id(), st, from, to, after.createdAt(), after.id(), limit + 1);
+    return toPage(rows, limit);
+  }
+
+  /**
+   * Admin listing across merchants. With a {@code merchantId} it is the merchant's listing on its
+   * shard; without one every shard is queried and the pages merged, newest first.
+   */
+  public PaymentPage listAllPayments(Long merchantId, String status, Instant from, Instant to, String cursor, int limit){
+    if (limit < 1 || limit > listMaxLimit) {
+      throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "limit must be between 1 and "+listMaxLimit);
+    }
+    var st = parseStatus(status);
+    var after = Cursor.decode(cursor);
+    var rows = merchantId != null
+        ? payments.findPage(merchantId, st, from, to, after.createdAt(), after.id(), limit + 1)
+        : payments.findRecent(st, from, to, after.createdAt(), after.id(), limit + 1);
+    return toPage(rows, limit);
+  }
+
+  /** Payment count per status on each shard. */
+  public List<Map<String,Object>> shardStats(){
+    var counts = payments.countByStatus();
+    var out = new ArrayList<Map<String,Object>>(counts.size());
+    for (int i = 0; i < counts.size(); i++) {
+      out.add(Map.of("shard", i, "payments", counts.get(i).values().stream().mapToLong(Long::longValue).sum(),
+          "byStatus", counts.get(i)));
+    }
+    return out;
+  }
+
+  /** Keyset cursor: the (createdAt, id) of the last item of the previous page. */
+  private record Cursor(Instant createdAt, String id) {
+    static final Cursor NONE = new Cursor(null, null);
+
+    static Cursor decode(String cursor){
+      if (cursor == null || cursor.isBlank()) return NONE;
+      try {
+        var raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+        var sep = raw.indexOf('|');
+        return new Cursor(Instant.parse(raw.substring(0, sep)), raw.substring(sep + 1));
+      } catch (RuntimeException e) {
+        throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid cursor");
       }
     }
 
-    payments.save(payment);
+    static String encode(Payment last){
+      return Base64.getUrlEncoder().withoutPadding()
+          .encodeToString((last.getCreatedAt()+"|"+last.getId()).getBytes(StandardCharsets.UTF_8));
+    }
+  }
 
-    executor.submit(() -> processAndWebhook(payment.getId()));
+  private PaymentPage toPage(List<Payment> rows, int limit){
+    var more = rows.size() > limit;
+    var page = more ? rows.subList(0, limit) : rows;
+    var next = more ? Cursor.encode(page.get(page.size() - 1)) : null;
+    return new PaymentPage(page.stream().map(this::toResponse).toList(), next);
+  }
 
-    return toResponse(payment);
+  /**
+   * Authenticates now and returns the body that streams the export, so a bad token is still a
+   * plain 401 rather than a broken download.
+   */
+  public StreamingResponseBody exportPayments(String auth, String status, Instant from, Instant to,
+                                              PaymentExporter.Format format, boolean gzip){
+    var merchant = merchantFromAuth(auth);
+    var st = parseStatus(status);
+    exporter.acquire();
+    return out -> {
+      try {
+        OutputStream target = gzip ? new GZIPOutputStream(out, 8192) : out;
+        exporter.export(merchant.id(), st, from, to, format, target);
+        if (target instanceof GZIPOutputStream z) z.finish();
+      } finally {
+        exporter.release();
+      }
+    };
   }
 
-  public PaymentResponse getPayment(String id){
-    return toResponse(payments.findById(id)
-        .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND)));
+  /**
+   * Opens a Server-Sent Events stream of the merchant's payment status changes. With a
+   * {@code paymentId} the stream only carries that payment and starts with its current status.
+   */
+  public SseEmitter streamStatuses(String auth, String paymentId){
+    var merchant = merchantFromAuth(auth);
+    if (paymentId == null || paymentId.isBlank()) return eventBus.subscribe(merchant.id(), null, () -> null);
+    return eventBus.subscribe(merchant.id(), paymentId, () -> {
+      var p = payments.findById(paymentId)
+          .filter(x -> merchant.id().equals(x.getMerchantId()))
+          .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND));
+      return new PaymentEventBus.Event(p.getId(), p.getStatus().name(), p.getUpdatedAt());
+    });
   }
 
-  public Map<String,Object> refund(String auth, String paymentId){
+  private static Payment.Status parseStatus(String status){
+    if (status == null || status.isBlank()) return null;
+    try {
+      return Payment.Status.valueOf(status.trim().toUpperCase());
+    } catch (IllegalArgumentException e) {
+      throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Unknown status "+status);
+    }
+  }
+
+  /**
+   * Requests a refund of {@code amount} (by default whatever is left) of a settled payment. The
+   * amount is held on the payment and the refund stored as PENDING in one transaction; it is then
+   * processed by the settlement workers like a payment, and its webhooks are written there, so the
+   * request only pays for the two writes. A repeated {@code Idempotency-Key} returns the first refund,
+   * or 422 when it was used for another payment or amount.
+   */
+  public RefundResponse refund(String auth, String idemKey, RefundRequest req){
     var merchant = merchantFromAuth(auth);
-    var p = payments.findById(paymentId)
+    var mid = merchant.id();
+    if (idemKey != null) {
+      var existing = refunds.findByIdempotencyKeyAndMerchantId(idemKey, mid, req.paymentId());
+      if (existing.isPresent()) return replay(existing.get(), req);
+    }
+    var p = payments.findById(req.paymentId())
         .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND));
-    if (!merchant.getId().equals(p.getMerchantId())) {
+    if (!mid.equals(p.getMerchantId())) {
       throw new ResponseStatusException(HttpStatus.FORBIDDEN);
     }
-    p.setStatus(Payment.Status.REFUNDED);
-    p.setUpdatedAt(Instant.now());
-    payments.save(p);
-    sendWebhook(p);
-    return Map.of("id","ref_"+UUID.randomUUID(),"status","PENDING");
+    if (!REFUNDABLE.contains(p.getStatus())) {
+      throw new ResponseStatusException(HttpStatus.CONFLICT, "Payment is not refundable in status "+p.getStatus());
+    }
+    var remaining = p.getTotalWithInterest().subtract(p.getRefundedAmount()).subtract(p.getRefundingAmount());
+    var amount = req.amount() != null ? req.amount() : remaining;
+    if (amount.signum() <= 0 || amount.compareTo(remaining) > 0) {
+      throw new ResponseStatusException(HttpStatus.UNPROCESSABLE_ENTITY, "Refundable balance is "+remaining);
+    }
+
+    var now = Instant.now();
+    var refund = Refund.builder()
+        .id("ref_"+shards.tagOf(p.getId())+ids.next())
+        .paymentId(p.getId())
+        .merchantId(mid)
+        .amount(amount)
+        .status(Refund.Status.PENDING)
+        .createdAt(now)
+        .updatedAt(now)
+        .idempotencyKey(idemKey)
+        .build();
+    boolean held;
+    try {
+      held = metrics.save(Save.REFUND_INSERT).record(() -> refunds.reserve(refund, REFUNDABLE));
+    } catch (DataIntegrityViolationException e) {
+      // lost the race on uk_refund_merchant_idempotency
+      if (idemKey == null) throw e;
+      return replay(refunds.findByIdempotencyKeyAndMerchantId(idemKey, mid, req.paymentId()).orElseThrow(() -> e), req);
+    }
+    // the balance we checked was taken by a concurrent refund, or the payment changed under us
+    if (!held) {
+      throw new ResponseStatusException(HttpStatus.CONFLICT, "Payment changed concurrently");
+    }
+    settlementScheduler.schedule(new SettlementScheduler.Pending(p.getId(), mid, now, refund.getId(), amount));
+    return toResponse(refund);
+  }
+
+  // no amount means "whatever is left", which is what the first request got
+  private RefundResponse replay(Refund existing, RefundRequest req){
+    if (!existing.getPaymentId().equals(req.paymentId())
+        || (req.amount() != null && req.amount().compareTo(existing.getAmount()) != 0)) {
+      throw new ResponseStatusException(HttpStatus.UNPROCESSABLE_ENTITY, "Idempotency-Key already used for a different refund");
+    }
+    return toResponse(existing);
   }
 
-  private void processAndWebhook(String paymentId){
-    try { Thread.sleep(delay); } catch (InterruptedException ignored) {}
-    var p = payments.findById(paymentId).orElse(null);
-    if (p==null) return;
+  public RefundResponse getRefund(String auth, String id){
+    var merchant = merchantFromAuth(auth);
+    return toResponse(refunds.findById(id)
+        .filter(r -> merchant.id().equals(r.getMerchantId()))
+        .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND)));
+  }
 
-    var approved = Math.random() > failRate;
-    p.setStatus(approved ? Payment.Status.APPROVED : Payment.Status.DECLINED);
-    p.setUpdatedAt(Instant.now());
-    payments.save(p);
+  public List<RefundResponse> listRefunds(String auth, String paymentId){
+    var merchant = merchantFromAuth(auth);
+    var p = payments.findById(paymentId)
+        .filter(x -> merchant.id().equals(x.getMerchantId()))
+        .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND));
+    return refunds.findByPaymentId(p.getId()).stream().map(this::toResponse).toList();
+  }
 
-    sendWebhook(p);
+  /**
+   * Processes a batch of due payments and refunds: one batched conditional update per kind, one
+   * batched outbox insert for all of their webhooks.
+   * <p>
+   * The status updates and the outbox insert are separate transactions (on separate databases when
+   * sharded), so a batch can fail after its updates committed. Outcomes are therefore drawn once and
+   * kept on the entries: the scheduler retries with the same outcome and timestamp, the updates match
+   * rows that already carry exactly that, and the events are produced again instead of being lost.
+   */
+  private void settleBatch(List<SettlementScheduler.Pending> due){
+    stageLimiter.run(StageLimiter.Stage.PROCESSING, () -> {
+      // truncated to what the column stores, so a retry compares equal to its own earlier write
+      var now = Instant.now().truncatedTo(ChronoUnit.MICROS);
+      for (int i = 0; i < due.size(); i++) {
+        var d = due.get(i);
+        if (!d.isDecided()) due.set(i, d.withOutcome(drawOutcome(d), now));
+      }
+      var events = new ArrayList<WebhookEvent>(due.size());
+      var duePayments = new ArrayList<SettlementScheduler.Pending>(due.size());
+      var dueRefunds = new ArrayList<SettlementScheduler.Pending>();
+      for (var d : due) (d.isRefund() ? dueRefunds : duePayments).add(d);
+      if (!duePayments.isEmpty()) settlePayments(duePayments, events);
+      if (!dueRefunds.isEmpty()) completeRefunds(dueRefunds, events);
+      sendWebhooks(events);
+      for (var e : events) {
+        if (e.refundId() != null) continue;
+        eventBus.publish(e.merchantId(), new PaymentEventBus.Event(e.paymentId(), e.status(), e.occurredAt()));
+      }
+    });
   }
 
-  private void sendWebhook(Payment p){
-    var merchant = merchants.findById(p.getMerchantId()).orElse(null);
-    if (merchant==null || merchant.getWebhookUrl()==null || merchant.getWebhookUrl().isBlank()) return;
+  private String drawOutcome(SettlementScheduler.Pending d){
+    if (d.isRefund()) return (Math.random() > refundFailRate ? Refund.Status.SUCCEEDED : Refund.Status.FAILED).name();
+    return (Math.random() > failRate ? Payment.Status.APPROVED : Payment.Status.DECLINED).name();
+  }
 
-    String payload;
-    try {
-      var data = Map.of(
-          "paymentId", p.getId(),
-          "status", p.getStatus().name(),
-          "occurredAt", Instant.now().toString()
-      );
-      var event = Map.of(
-          "id", "evt_"+UUID.randomUUID().toString().substring(0,8),
-          "type", "payment.updated",
-          "data", data
-      );
-      payload = objectMapper.writeValueAsString(event);
-    } catch (Exception e) {
-      // fallback mínimo: não envia webhook se falhar a serialização
-      return;
+  private void settlePayments(List<SettlementScheduler.Pending> due, List<WebhookEvent> events){
+    var ids = new ArrayList<String>(due.size());
+    var statuses = new ArrayList<Payment.Status>(due.size());
+    var settledAt = new ArrayList<Instant>(due.size());
+    for (var d : due) {
+      ids.add(d.paymentId());
+      statuses.add(Payment.Status.valueOf(d.outcome()));
+      settledAt.add(d.settledAt());
     }
+    var updated = metrics.save(Save.PAYMENT_SETTLE).record(() -> payments.updateStatusIfPending(ids, statuses, settledAt));
+    for (int i = 0; i < due.size(); i++) {
+      if (!updated[i]) continue; // settled elsewhere before we got to it
+      var d = due.get(i);
+      events.add(WebhookEvent.payment(d.paymentId(), d.merchantId(), statuses.get(i), d.settledAt()));
+      metrics.settlementDelay().record(Duration.between(d.createdAt(), d.settledAt()));
+    }
+  }
 
-    var signature = hmac(payload, secret);
+  private void completeRefunds(List<SettlementScheduler.Pending> due, List<WebhookEvent> events){
+    var outcomes = new ArrayList<Refund>(due.size());
+    for (var d : due) {
+      outcomes.add(Refund.builder()
+          .id(d.refundId())
+          .paymentId(d.paymentId())
+          .merchantId(d.merchantId())
+          .amount(d.refundAmount())
+          .status(Refund.Status.valueOf(d.outcome()))
+          .updatedAt(d.settledAt())
+          .build());
+    }
+    var paymentStatuses = metrics.save(Save.REFUND_SETTLE).record(() -> refunds.complete(outcomes));
+    for (int i = 0; i < due.size(); i++) {
+      if (paymentStatuses[i] == null) continue; // completed elsewhere before we got to it
+      var r = outcomes.get(i);
+      events.add(WebhookEvent.refund(r));
+      // a failed refund only released its hold; the payment's status did not change
+      if (r.getStatus() == Refund.Status.SUCCEEDED) {
+        events.add(WebhookEvent.payment(r.getPaymentId(), r.getMerchantId(), paymentStatuses[i], r.getUpdatedAt()));
+      }
+    }
+  }
 
-    var delivery = deliveries.save(WebhookDelivery.builder()
-        .eventId("evt_"+UUID.randomUUID().toString().substring(0,8))
-        .eventType("payment.updated")
-        .paymentId(p.getId())
-        .targetUrl(merchant.getWebhookUrl())
-        .signature(signature)
-        .payload(payload)
-        .attempts(0)
-        .delivered(false)
-        .lastAttemptAt(null)
-        .build());
+  @Override
+  public void destroy(){
+    // settlement workers use the repositories, so stop them before the EntityManagerFactory closes
+    settlementScheduler.stop();
+  }
 
-    executor.submit(() -> tryDeliver(delivery.getId()));
+  @EventListener(ApplicationReadyEvent.class)
+  void recoverPendingSettlements(){
+    // the delay queue is in memory; re-enqueue whatever was still pending when the node stopped
+    for (var p : payments.findByStatus(Payment.Status.PENDING)) {
+      settlementScheduler.schedule(new SettlementScheduler.Pending(p.getId(), p.getMerchantId(), p.getCreatedAt()));
+    }
+    for (var r : refunds.findByStatus(Refund.Status.PENDING)) {
+      settlementScheduler.schedule(new SettlementScheduler.Pending(
+          r.getPaymentId(), r.getMerchantId(), r.getCreatedAt(), r.getId(), r.getAmount()));
+    }
   }
 
-  private void tryDeliver(Long deliveryId){
-    var d = deliveries.findById(deliveryId).orElse(null);
-    if (d==null) return;
-    var target = d.getTargetUrl();
+  private SettlementScheduler.Pending pending(Payment p){
+    return new SettlementScheduler.Pending(p.getId(), p.getMerchantId(), p.getCreatedAt());
+  }
 
-    // circuit-breaker: if tripped, schedule next attempt after cooldown
-    if (!circuitBreaker.allowRequest(target)){
-      long cooldown = circuitBreaker.getCooldownMs(target);
-      scheduler.schedule(() -> tryDeliver(deliveryId), cooldown>0?cooldown:1000L, TimeUnit.MILLISECONDS);
-      return;
+  /**
+   * The part of a payment, or of one of its refunds, a webhook is built from; settlement never
+   * loads the entities. {@code refundId} and {@code amount} are only set for refund events.
+   */
+  private record WebhookEvent(String type, String paymentId, Long merchantId, String status, String refundId, BigDecimal amount,
+                              Instant occurredAt) {
+    static WebhookEvent payment(String paymentId, Long merchantId, Payment.Status status, Instant occurredAt){
+      return new WebhookEvent("payment.updated", paymentId, merchantId, status.name(), null, null, occurredAt);
     }
 
-    try {
-      deliveryMetrics.incAttempt();
-      var client = HttpClient.newHttpClient();
-      var req = HttpRequest.newBuilder(URI.create(d.getTargetUrl()))
-        .header("Content-Type","application/json")
-        .header("X-Event-Type", d.getEventType())
-        .header("X-Signature", d.getSignature())
-        .POST(HttpRequest.BodyPublishers.ofString(d.getPayload()))
-        .build();
-      var res = client.send(req, HttpResponse.BodyHandlers.ofString());
-      d.setAttempts(d.getAttempts()+1);
-      d.setLastAttemptAt(Instant.now());
-      d.setDelivered(res.statusCode()>=200 && res.statusCode()<300);
-      deliveries.save(d);
-
-      if (d.isDelivered()){
-        circuitBreaker.recordSuccess(target);
-        deliveryMetrics.incSuccess();
-      } else {
-        circuitBreaker.recordFailure(target);
-        deliveryMetrics.incFailure();
-      }
+    static WebhookEvent refund(Refund r){
+      return new WebhookEvent("refund.updated", r.getPaymentId(), r.getMerchantId(), r.getStatus().name(), r.getId(), r.getAmount(),
+          r.getUpdatedAt());
+    }
+  }
 
-      if(!d.isDelivered() && d.getAttempts()<5){
-        long backoff = (long) Math.pow(2, d.getAttempts()) * 1000L; // exponential backoff
-        scheduler.schedule(() -> tryDeliver(deliveryId), backoff, TimeUnit.MILLISECONDS);
-      }
-    } catch (Exception e){
-      d.setAttempts(d.getAttempts()+1);
-      d.setLastAttemptAt(Instant.now());
-      d.setDelivered(false);
-      deliveries.save(d);
-      circuitBreaker.recordFailure(target);
-      deliveryMetrics.incFailure();
-      if (d.getAttempts()<5){
-        long backoff = (long) Math.pow(2, d.getAttempts()) * 1000L;
-        scheduler.schedule(() -> tryDeliver(deliveryId), backoff, TimeUnit.MILLISECONDS);
-      }
+  private void sendWebhooks(List<WebhookEvent> batch){
+    if (batch.isEmpty()) return;
+    var rows = new ArrayList<WebhookDelivery>(batch.size());
+    for (var p : batch) {
+      var merchant = merchantCache.get(p.merchantId()).orElse(null);
+      if (merchant==null || !merchant.hasWebhook()) continue;
+      var row = toDelivery(p, merchant);
+      if (row!=null) rows.add(row);
     }
+    if (rows.isEmpty()) return;
+    metrics.save(Save.WEBHOOK_OUTBOX).record(() -> deliveries.saveAll(rows));
+    outboxRelay.accumulated(rows);
+    outboxRelay.wakeUp();
   }
 
-  private static String hmac(String payload, String secret){
+  private WebhookDelivery toDelivery(WebhookEvent p, MerchantSnapshot merchant){
+    var eventId = "evt_"+ids.next();
+    byte[] payload;
+    long start = System.nanoTime();
     try {
-      var mac = javax.crypto.Mac.getInstance("HmacSHA256");
-      mac.init(new javax.crypto.spec.SecretKeySpec(secret.getBytes(), "HmacSHA256"));
-      return Base64.getEncoder().encodeToString(mac.doFinal(payload.getBytes()));
-    } catch (Exception e){ return ""; }
+      payload = p.refundId() == null
+          ? eventWriter.paymentEvent(eventId, p.type(), p.paymentId(), p.status(), p.occurredAt())
+          : eventWriter.refundEvent(eventId, p.type(), p.refundId(), p.paymentId(), p.status(), p.amount(), p.occurredAt());
+    } catch (Exception e) {
+      // fallback mínimo: não envia webhook se falhar a serialização
+      return null;
+    }
+    long serialized = System.nanoTime();
+    metrics.serialize().record(serialized - start, TimeUnit.NANOSECONDS);
+
+    // the same bytes are stored, signed and published
+    var signature = signer.sign(merchant, payload);
+    metrics.sign().record(System.nanoTime() - serialized, TimeUnit.NANOSECONDS);
+
+    var row = WebhookDelivery.builder()
+        .eventId(eventId)
+        .eventType(p.type())
+        .paymentId(p.paymentId())
+        .merchantId(merchant.id())
+        .targetUrl(merchant.webhookUrl())
+        .signature(signature.value())
+        .signatureKeyId(signature.keyId())
+        .payload(payload)
+        .attempts(0)
+        .delivered(false)
+        .lastAttemptAt(null)
+        .status(WebhookDelivery.Status.PENDING)
+        .nextAttemptAt(Instant.now())
+        .build();
+    if (merchant.batchesWebhooks()) {
+      // waits for the batch to fill, at most the merchant's window; the row keeps its own signature
+      // so it can still go out alone (e.g. when released from a parked circuit)
+      long window = merchant.webhookBatchWindowMs() != null ? merchant.webhookBatchWindowMs() : batchDefaultWindowMs;
+      row.setStatus(WebhookDelivery.Status.BATCHING);
+      row.setBatchMax(merchant.webhookBatchSize());
+      row.setNextAttemptAt(row.getNextAttemptAt().plusMillis(window));
+    }
+    return row;
   }
 
   private PaymentResponse toResponse(Payment p){
     return new PaymentResponse(
         p.getId(), p.getStatus().name(), p.getMethod(),
         p.getAmount(), p.getInstallments(), p.getMonthlyInterest(),
-        p.getTotalWithInterest()
+        p.getTotalWithInterest(), p.getRefundedAmount()
     );
   }
+
+  private RefundResponse toResponse(Refund r){
+    return new RefundResponse(r.getId(), r.getPaymentId(), r.getStatus().name(), r.getAmount(), r.getCreatedAt(), r.getUpdatedAt());
+  }
 }
@@ -0,0 +1,50 @@
+package edu.ucsal.fiadopay.service;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Timers for the payment pipeline. Every meter is registered up front so the hot path records
+ * into a ready {@link Timer} instead of resolving names and tags per call.
+ */
+@Component
+public class PipelineMetrics {
+
+    /** Database writes, tagged {@code op} on {@code fiadopay.db.save}. */
+    public enum Save {
+        PAYMENT_INSERT, PAYMENT_BATCH_INSERT, PAYMENT_SETTLE, REFUND_INSERT, REFUND_SETTLE, WEBHOOK_OUTBOX, WEBHOOK_RESULT;
+
+        final String tag = name().toLowerCase().replace('_', '.');
+    }
+
+    private final Timer createPayment;
+    private final Timer settlementDelay;
+    private final Timer serialize;
+    private final Timer sign;
+    private final Map<Save, Timer> saves = new EnumMap<>(Save.class);
+
+    public PipelineMetrics(MeterRegistry registry) {
+        this.createPayment = Timer.builder("fiadopay.payment.create")
+                .description("POST /payments, authentication to response").register(registry);
+        this.settlementDelay = Timer.builder("fiadopay.settlement.delay")
+                .description("Time from creation until a payment is handed to settlement").register(registry);
+        this.serialize = Timer.builder("fiadopay.webhook.serialize")
+                .description("Webhook event JSON encoding").register(registry);
+        this.sign = Timer.builder("fiadopay.webhook.sign")
+                .description("Webhook HMAC signing").register(registry);
+        for (var op : Save.values()) {
+            saves.put(op, Timer.builder("fiadopay.db.save").tag("op", op.tag).register(registry));
+        }
+    }
+
+    public Timer createPayment() { return createPayment; }
+    public Timer settlementDelay() { return settlementDelay; }
+    public Timer serialize() { return serialize; }
+    public Timer sign() { return sign; }
+    public Timer save(Save op) { return saves.get(op); }
+}
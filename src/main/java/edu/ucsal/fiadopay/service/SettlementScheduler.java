@@ -0,0 +1,142 @@
+package edu.ucsal.fiadopay.service;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Holds pending payments, and pending refunds, in a delay queue keyed by their due time. A
+ * handful of worker threads block until something is due and hand every due entry to the handler
+ * in batches, so no thread is parked per payment while it waits for the processing delay.
+ * <p>
+ * Entries carry what settlement needs besides the id (merchant, creation time and, for a refund,
+ * its amount), so the handler can settle with a conditional update and no read. Once the handler
+ * has drawn an outcome it is kept on the entry, so a batch that fails after some of its updates
+ * committed is retried with the same outcome and timestamp and can recognise its own writes.
+ */
+@Component
+public class SettlementScheduler implements DisposableBean {
+
+    private static final Logger log = LoggerFactory.getLogger(SettlementScheduler.class);
+
+    /**
+     * A payment waiting to be settled or, with {@code refundId} set, one of its refunds waiting to be
+     * processed. {@code outcome} and {@code settledAt} are null until the handler decides them.
+     */
+    public record Pending(String paymentId, Long merchantId, Instant createdAt, String refundId, BigDecimal refundAmount,
+                          String outcome, Instant settledAt) {
+        public Pending(String paymentId, Long merchantId, Instant createdAt) {
+            this(paymentId, merchantId, createdAt, null, null, null, null);
+        }
+
+        public Pending(String paymentId, Long merchantId, Instant createdAt, String refundId, BigDecimal refundAmount) {
+            this(paymentId, merchantId, createdAt, refundId, refundAmount, null, null);
+        }
+
+        public boolean isRefund() { return refundId != null; }
+
+        public boolean isDecided() { return outcome != null; }
+
+        public Pending withOutcome(String outcome, Instant settledAt) {
+            return new Pending(paymentId, merchantId, createdAt, refundId, refundAmount, outcome, settledAt);
+        }
+    }
+
+    private record Due(Pending pending, long dueAtNanos) implements Delayed {
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(dueAtNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed o) {
+            return Long.compare(dueAtNanos, ((Due) o).dueAtNanos);
+        }
+    }
+
+    private final DelayQueue<Due> queue = new DelayQueue<>();
+    private final List<Thread> workers = new ArrayList<>();
+    private final int workerCount;
+    private final int batchSize;
+    private final long delayMs;
+
+    public SettlementScheduler(@Value("${fiadopay.settlement.workers:2}") int workerCount,
+                               @Value("${fiadopay.settlement.batch-size:500}") int batchSize,
+                               @Value("${fiadopay.processing-delay-ms}") long delayMs) {
+        this.workerCount = workerCount;
+        this.batchSize = batchSize;
+        this.delayMs = delayMs;
+    }
+
+    /**
+     * Starts the workers; due entries are delivered to {@code handler} in batches. The handler may
+     * replace entries of the list it gets with {@link Pending#withOutcome decided} copies; if it
+     * throws, the list as it then stands is rescheduled.
+     */
+    public synchronized void start(Consumer<List<Pending>> handler) {
+        if (!workers.isEmpty()) throw new IllegalStateException("SettlementScheduler already started");
+        for (int i = 0; i < workerCount; i++) {
+            var t = new Thread(() -> drain(handler), "fiado-settle-" + i);
+            t.setDaemon(true);
+            workers.add(t);
+            t.start();
+        }
+    }
+
+    public void schedule(Pending pending) {
+        queue.add(new Due(pending, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMs)));
+    }
+
+    public int getBacklog() { return queue.size(); }
+
+    private void drain(Consumer<List<Pending>> handler) {
+        var due = new ArrayList<Due>(batchSize);
+        var batch = new ArrayList<Pending>(batchSize);
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                due.add(queue.take());
+                queue.drainTo(due, batchSize - 1); // only transfers entries that are already due
+                for (var d : due) batch.add(d.pending());
+                handler.accept(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (RuntimeException e) {
+                log.warn("Settlement batch of {} entries failed, retrying later", batch.size(), e);
+                for (var p : batch) schedule(p);
+            } finally {
+                due.clear();
+                batch.clear();
+            }
+        }
+    }
+
+    /** Interrupts the workers and waits briefly for an in-progress batch to finish. */
+    public synchronized void stop() {
+        workers.forEach(Thread::interrupt);
+        for (var t : workers) {
+            try {
+                t.join(5000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        workers.clear();
+    }
+
+    @Override
+    public void destroy() {
+        stop();
+    }
+}
@@ -0,0 +1,62 @@
+package edu.ucsal.fiadopay.service;
+
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Snowflake layout in 63 bits: milliseconds since 2025-01-01 (41 bits, good for ~69 years), node id
+ * (10 bits, {@code fiadopay.ids.node-id}) and a per-millisecond sequence (12 bits), written as 13
+ * fixed-width lowercase Crockford base-32 characters so string order is numeric order. New rows
+ * therefore land at the right edge of the primary key index instead of at random pages.
+ * <p>
+ * Issuing is a single CAS on the last (time, sequence) pair, with no lock and no {@code SecureRandom}.
+ * More than 4096 ids in a millisecond, or a clock that steps back, borrow the next millisecond
+ * rather than repeat or go backwards, so ids stay unique and monotonic on a node.
+ */
+@Component
+public class SnowflakeIdGenerator implements IdGenerator {
+
+    static final long EPOCH_MS = Instant.parse("2025-01-01T00:00:00Z").toEpochMilli();
+    static final int NODE_BITS = 10;
+    static final int SEQUENCE_BITS = 12;
+    static final int MAX_NODE = (1 << NODE_BITS) - 1;
+
+    private static final char[] ALPHABET = "0123456789abcdefghjkmnpqrstvwxyz".toCharArray();
+    private static final int LENGTH = 13; // ceil(64 / 5)
+
+    private final long node;
+    // (millis since EPOCH_MS << SEQUENCE_BITS) | sequence of the last id issued
+    private final AtomicLong last = new AtomicLong();
+
+    public SnowflakeIdGenerator(@Value("${fiadopay.ids.node-id:0}") int nodeId) {
+        if (nodeId < 0 || nodeId > MAX_NODE) {
+            throw new IllegalStateException("fiadopay.ids.node-id must be between 0 and " + MAX_NODE + ", got " + nodeId);
+        }
+        this.node = nodeId;
+    }
+
+    @Override
+    public String next() {
+        long now = (System.currentTimeMillis() - EPOCH_MS) << SEQUENCE_BITS;
+        long prev, stamp;
+        do {
+            prev = last.get();
+            stamp = Math.max(prev + 1, now);
+        } while (!last.compareAndSet(prev, stamp));
+        long time = stamp >>> SEQUENCE_BITS;
+        long sequence = stamp & ((1L << SEQUENCE_BITS) - 1);
+        return encode((time << (NODE_BITS + SEQUENCE_BITS)) | (node << SEQUENCE_BITS) | sequence);
+    }
+
+    static String encode(long value) {
+        var chars = new char[LENGTH];
+        for (int i = LENGTH - 1; i >= 0; i--) {
+            chars[i] = ALPHABET[(int) (value & 31)];
+            value >>>= 5;
+        }
+        return new String(chars);
+    }
+}
@@ -1,47 +1,226 @@
 package edu.ucsal.fiadopay.service;
 
-import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.ToIntFunction;
 
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+import edu.ucsal.fiadopay.domain.WebhookDelivery;
+
+/**
+ * Per-target circuit breaker. Each target URL has its own lock-free {@link Circuit}: a ring
+ * buffer of recent outcomes decides when to trip, OPEN lets nothing through until the cooldown
+ * ends, HALF_OPEN lets exactly one probe through and its outcome closes or re-opens the
+ * circuit (doubling the cooldown). Deliveries that arrive while a target is not CLOSED are
+ * parked here, up to {@code max-parked-per-target}, and released once it closes as fast as the
+ * caller says the target can take them, instead of all retrying at once.
+ */
 @Component
 public class WebhookDeliveryCircuitCircuitBreaker {
 
-    private static class State {
-        int failures;
-        long trippedUntil; // epoch ms
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private static final int EMPTY = 0, SUCCESS = 1, FAILURE = 2;
+
+    private final class Circuit {
+        final AtomicReference<State> state = new AtomicReference<>(State.CLOSED);
+        final AtomicLong openedAt = new AtomicLong();        // nanoTime
+        final AtomicLong cooldown = new AtomicLong(baseCooldownNanos);
+        final AtomicLong probeStartedAt = new AtomicLong(); // 0 = no probe in flight
+
+        // sliding window of the last windowSize outcomes
+        final AtomicIntegerArray slots = new AtomicIntegerArray(windowSize);
+        final AtomicInteger cursor = new AtomicInteger();
+        final AtomicInteger calls = new AtomicInteger();
+        final AtomicInteger failures = new AtomicInteger();
+
+        final Queue<WebhookDelivery> parked = new ConcurrentLinkedQueue<>();
+        final AtomicInteger parkedCount = new AtomicInteger(); // the queue's size() is O(n)
+
+        void record(int outcome) {
+            int i = Math.floorMod(cursor.getAndIncrement(), windowSize);
+            int prev = slots.getAndSet(i, outcome);
+            if (prev == EMPTY) calls.incrementAndGet();
+            if (prev == FAILURE) failures.decrementAndGet();
+            if (outcome == FAILURE) failures.incrementAndGet();
+        }
+
+        void resetWindow() {
+            for (int i = 0; i < windowSize; i++) slots.set(i, EMPTY);
+            calls.set(0);
+            failures.set(0);
+        }
+
+        void open(long now) {
+            openedAt.set(now);
+            probeStartedAt.set(0);
+            resetWindow();
+        }
     }
 
-    private final Map<String, State> map = new ConcurrentHashMap<>();
-    private final int failureThreshold = 5;
-    private final long baseCooldownMs = 60_000L; // 1 minute
+    private final Map<String, Circuit> circuits = new ConcurrentHashMap<>();
+    private final Set<Long> parkedIds = ConcurrentHashMap.newKeySet();
+    private final int windowSize;
+    private final int minimumCalls;
+    private final double failureRateThreshold;
+    private final long baseCooldownNanos;
+    private final long maxCooldownNanos;
+    private final int maxParkedPerTarget;
 
-    public boolean allowRequest(String target){
-        var s = map.get(target);
-        if (s==null) return true;
-        if (s.trippedUntil <= Instant.now().toEpochMilli()) return true;
-        return false;
+    public WebhookDeliveryCircuitCircuitBreaker(
+            @Value("${fiadopay.webhook.circuit.window-size:20}") int windowSize,
+            @Value("${fiadopay.webhook.circuit.minimum-calls:5}") int minimumCalls,
+            @Value("${fiadopay.webhook.circuit.failure-rate-threshold:0.5}") double failureRateThreshold,
+            @Value("${fiadopay.webhook.circuit.base-cooldown-ms:60000}") long baseCooldownMs,
+            @Value("${fiadopay.webhook.circuit.max-cooldown-ms:600000}") long maxCooldownMs,
+            @Value("${fiadopay.webhook.circuit.max-parked-per-target:1000}") int maxParkedPerTarget) {
+        this.windowSize = windowSize;
+        this.minimumCalls = minimumCalls;
+        this.failureRateThreshold = failureRateThreshold;
+        this.baseCooldownNanos = TimeUnit.MILLISECONDS.toNanos(baseCooldownMs);
+        this.maxCooldownNanos = TimeUnit.MILLISECONDS.toNanos(maxCooldownMs);
+        this.maxParkedPerTarget = maxParkedPerTarget;
     }
 
-    public void recordSuccess(String target){
-        map.remove(target);
+    private Circuit circuit(String target) {
+        return circuits.computeIfAbsent(target, k -> new Circuit());
     }
 
-    public void recordFailure(String target){
-        var s = map.computeIfAbsent(target, k -> new State());
-        s.failures++;
-        if (s.failures >= failureThreshold){
-            long cooldown = baseCooldownMs * s.failures; // increasing cooldown
-            s.trippedUntil = Instant.now().toEpochMilli() + cooldown;
+    /** True if a request may go out now; in HALF_OPEN only the caller that wins the probe gets true. */
+    public boolean allowRequest(String target) {
+        var c = circuits.get(target);
+        if (c == null) return true;
+        long now = System.nanoTime();
+        switch (c.state.get()) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (now - c.openedAt.get() < c.cooldown.get()) return false;
+                c.state.compareAndSet(State.OPEN, State.HALF_OPEN);
+                return tryProbe(c, now);
+            default:
+                return tryProbe(c, now);
         }
     }
 
-    public long getCooldownMs(String target){
-        var s = map.get(target);
-        if (s==null) return baseCooldownMs;
-        if (s.trippedUntil <= Instant.now().toEpochMilli()) return 0L;
-        return s.trippedUntil - Instant.now().toEpochMilli();
+    private boolean tryProbe(Circuit c, long now) {
+        long started = c.probeStartedAt.get();
+        // a probe whose outcome never came back is considered lost after one cooldown
+        if (started != 0 && now - started < c.cooldown.get()) return false;
+        return c.probeStartedAt.compareAndSet(started, now);
+    }
+
+    public void recordSuccess(String target) {
+        var c = circuits.get(target);
+        if (c == null) return;
+        if (c.state.get() == State.HALF_OPEN && c.state.compareAndSet(State.HALF_OPEN, State.CLOSED)) {
+            c.resetWindow();
+            c.cooldown.set(baseCooldownNanos);
+            c.probeStartedAt.set(0);
+            return;
+        }
+        c.record(SUCCESS);
+    }
+
+    public void recordFailure(String target) {
+        var c = circuit(target);
+        long now = System.nanoTime();
+        if (c.state.get() == State.HALF_OPEN && c.state.compareAndSet(State.HALF_OPEN, State.OPEN)) {
+            c.cooldown.getAndUpdate(cd -> Math.min(cd * 2, maxCooldownNanos));
+            c.open(now);
+            return;
+        }
+        c.record(FAILURE);
+        int calls = c.calls.get();
+        if (calls >= minimumCalls && (double) c.failures.get() / calls >= failureRateThreshold
+                && c.state.compareAndSet(State.CLOSED, State.OPEN)) {
+            c.open(now);
+        }
+    }
+
+    /** Remaining cooldown before the target may be probed again; 0 if it is not open. */
+    public long getCooldownMs(String target) {
+        var c = circuits.get(target);
+        if (c == null || c.state.get() != State.OPEN) return 0L;
+        long remaining = c.cooldown.get() - (System.nanoTime() - c.openedAt.get());
+        return Math.max(0L, TimeUnit.NANOSECONDS.toMillis(remaining));
+    }
+
+    /** True if the target's circuit is CLOSED; unlike {@link #allowRequest} this never takes the probe. */
+    public boolean isClosed(String target) {
+        return getState(target) == State.CLOSED;
+    }
+
+    public State getState(String target) {
+        var c = circuits.get(target);
+        return c == null ? State.CLOSED : c.state.get();
+    }
+
+    /** Parks a delivery for its target; false if it is already parked (e.g. re-claimed after its lease). */
+    public boolean park(WebhookDelivery d) {
+        if (!parkedIds.add(d.getId())) return false;
+        var c = circuit(d.getTargetUrl());
+        c.parkedCount.incrementAndGet();
+        c.parked.offer(d);
+        return true;
+    }
+
+    /** True while the target still has parked deliveries; new ones should queue behind them. */
+    public boolean hasParked(String target) {
+        var c = circuits.get(target);
+        return c != null && c.parkedCount.get() > 0;
+    }
+
+    /** How many more deliveries the target may park before {@code max-parked-per-target}; further ones stay in the outbox. */
+    public int parkRoom(String target) {
+        var c = circuits.get(target);
+        return Math.max(0, maxParkedPerTarget - (c == null ? 0 : c.parkedCount.get()));
+    }
+
+    /**
+     * Releases parked deliveries: for each CLOSED target as many as {@code room} allows, and a single
+     * probe for a target whose cooldown has ended. The probe is only taken when there is room to send it.
+     */
+    public List<WebhookDelivery> releaseParked(ToIntFunction<String> room) {
+        var out = new ArrayList<WebhookDelivery>();
+        circuits.forEach((target, c) -> {
+            if (c.parkedCount.get() == 0) return;
+            int max = room.applyAsInt(target);
+            if (max <= 0) return;
+            int n = c.state.get() == State.CLOSED ? max : (allowRequest(target) ? 1 : 0);
+            for (int i = 0; i < n; i++) {
+                var d = c.parked.poll();
+                if (d == null) break;
+                c.parkedCount.decrementAndGet();
+                parkedIds.remove(d.getId());
+                out.add(d);
+            }
+        });
+        return out;
+    }
+
+    public int getParked() { return parkedIds.size(); }
+
+    public Map<String, Map<String, Object>> snapshot() {
+        var out = new TreeMap<String, Map<String, Object>>();
+        circuits.forEach((target, c) -> out.put(target, Map.of(
+                "state", c.state.get(),
+                "failureRate", c.calls.get() == 0 ? 0.0 : (double) c.failures.get() / c.calls.get(),
+                "parked", c.parkedCount.get(),
+                "cooldownMs", getCooldownMs(target))));
+        return out;
     }
 }
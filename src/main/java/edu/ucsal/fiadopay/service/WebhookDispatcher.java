@@ -0,0 +1,110 @@
+package edu.ucsal.fiadopay.service;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import edu.ucsal.fiadopay.domain.WebhookDelivery;
+
+/**
+ * Long-lived HTTP/2 client shared by every webhook delivery. The JDK client keeps one
+ * keep-alive connection pool per target host (and multiplexes streams over HTTP/2 when the
+ * sink supports it), so we only bound the total number of in-flight requests here.
+ */
+@Component
+public class WebhookDispatcher {
+
+    private final HttpClient client;
+    private final Duration requestTimeout;
+    private final int maxInFlight;
+    private final Semaphore permits;
+    private final Map<String, AtomicInteger> inFlightByHost = new ConcurrentHashMap<>();
+
+    public WebhookDispatcher(@Value("${fiadopay.webhook.connect-timeout-ms:2000}") long connectTimeoutMs,
+                             @Value("${fiadopay.webhook.request-timeout-ms:5000}") long requestTimeoutMs,
+                             @Value("${fiadopay.webhook.max-in-flight:256}") int maxInFlight) {
+        this.client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .connectTimeout(Duration.ofMillis(connectTimeoutMs))
+                .followRedirects(HttpClient.Redirect.NEVER)
+                .build();
+        this.requestTimeout = Duration.ofMillis(requestTimeoutMs);
+        this.maxInFlight = maxInFlight;
+        this.permits = new Semaphore(maxInFlight);
+    }
+
+    /**
+     * Sends the delivery asynchronously and completes with the HTTP status code.
+     * Blocks the caller only while the dispatcher is saturated.
+     */
+    public CompletableFuture<Integer> send(WebhookDelivery d) {
+        final URI uri;
+        final HttpRequest req;
+        try {
+            uri = URI.create(d.getTargetUrl());
+            var builder = HttpRequest.newBuilder(uri)
+                    .timeout(requestTimeout)
+                    .header("Content-Type", "application/json")
+                    .header("X-Event-Type", d.getEventType())
+                    .header("X-Signature", d.getSignature())
+                    .header("X-Signature-Version", String.valueOf(d.getSignatureKeyId()));
+            if (d.isBatch()) builder.header("X-Event-Count", String.valueOf(d.getBatch().size()));
+            req = builder.POST(HttpRequest.BodyPublishers.ofByteArray(d.getPayload())).build();
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return CompletableFuture.failedFuture(e);
+        }
+
+        var host = hostKey(uri);
+        var counter = inFlightByHost.computeIfAbsent(host, k -> new AtomicInteger());
+        counter.incrementAndGet();
+        try {
+            return client.sendAsync(req, HttpResponse.BodyHandlers.discarding())
+                    .thenApply(HttpResponse::statusCode)
+                    .whenComplete((status, err) -> release(counter));
+        } catch (RuntimeException e) {
+            release(counter);
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    private void release(AtomicInteger counter) {
+        counter.decrementAndGet();
+        permits.release();
+    }
+
+    private static String hostKey(URI uri) {
+        var port = uri.getPort();
+        return port < 0 ? String.valueOf(uri.getHost()) : uri.getHost() + ":" + port;
+    }
+
+    public int getInFlight() { return maxInFlight - permits.availablePermits(); }
+    public int getCapacity() { return maxInFlight; }
+    public double getOccupancy() { return (double) getInFlight() / maxInFlight; }
+
+    public Map<String, Integer> getInFlightByHost() {
+        var out = new TreeMap<String, Integer>();
+        inFlightByHost.forEach((host, n) -> {
+            var v = n.get();
+            if (v > 0) out.put(host, v);
+        });
+        return out;
+    }
+}
@@ -0,0 +1,68 @@
+package edu.ucsal.fiadopay.service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.util.ByteArrayBuilder;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Streams webhook events straight to UTF-8 bytes with a {@code JsonGenerator}. The same byte
+ * array is stored in the outbox, signed and published, so each event is encoded exactly once.
+ */
+@Component
+public class WebhookEventWriter {
+
+    private static final int INITIAL_BUFFER = 256;
+
+    private final JsonFactory jsonFactory;
+    // reusable output buffers; a pool rather than a ThreadLocal so it also works on virtual threads
+    private final Queue<ByteArrayBuilder> buffers = new ConcurrentLinkedQueue<>();
+
+    public WebhookEventWriter(ObjectMapper objectMapper) {
+        this.jsonFactory = objectMapper.getFactory();
+    }
+
+    /** {"id":..,"type":..,"data":{"paymentId":..,"status":..,"occurredAt":..}} */
+    public byte[] paymentEvent(String eventId, String type, String paymentId, String status, Instant occurredAt) {
+        return write(eventId, type, null, paymentId, status, null, occurredAt);
+    }
+
+    /** {"id":..,"type":..,"data":{"refundId":..,"paymentId":..,"status":..,"amount":..,"occurredAt":..}} */
+    public byte[] refundEvent(String eventId, String type, String refundId, String paymentId, String status,
+                              BigDecimal amount, Instant occurredAt) {
+        return write(eventId, type, refundId, paymentId, status, amount, occurredAt);
+    }
+
+    private byte[] write(String eventId, String type, String refundId, String paymentId, String status,
+                         BigDecimal amount, Instant occurredAt) {
+        var buf = buffers.poll();
+        if (buf == null) buf = new ByteArrayBuilder(INITIAL_BUFFER);
+        try (var g = jsonFactory.createGenerator(buf)) {
+            g.writeStartObject();
+            g.writeStringField("id", eventId);
+            g.writeStringField("type", type);
+            g.writeObjectFieldStart("data");
+            if (refundId != null) g.writeStringField("refundId", refundId);
+            g.writeStringField("paymentId", paymentId);
+            g.writeStringField("status", status);
+            if (amount != null) g.writeNumberField("amount", amount);
+            g.writeStringField("occurredAt", occurredAt.toString());
+            g.writeEndObject();
+            g.writeEndObject();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        var bytes = buf.toByteArray();
+        buf.reset();
+        buffers.offer(buf);
+        return bytes;
+    }
+}
@@ -0,0 +1,380 @@
+package edu.ucsal.fiadopay.service;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Limit;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import edu.ucsal.fiadopay.config.StageLimiter;
+import edu.ucsal.fiadopay.domain.WebhookDelivery;
+import edu.ucsal.fiadopay.repo.WebhookDeliveryRepository;
+import edu.ucsal.fiadopay.service.PipelineMetrics.Save;
+
+/**
+ * Polls the {@link WebhookDelivery} outbox for due rows and dispatches them. Claiming a row
+ * pushes its {@code nextAttemptAt} forward by a lease, so a crashed node's rows become due
+ * again after the lease expires and pending retries survive restarts.
+ * <p>
+ * Rows whose target circuit is not CLOSED are parked in the circuit breaker under a longer
+ * lease, once the claim has committed, and released once the target recovers as fast as its lane
+ * takes them. The half-open probe is only taken on release, when the row is actually sent; past
+ * the parking limit rows stay in the outbox until the cooldown ends. Everything else goes through the
+ * per-target bulkheads of {@link WebhookTargetScheduler}; rows beyond a target's queue limit are
+ * left in the outbox for a later poll. The relay-wide {@code max-in-flight} only counts requests
+ * actually being sent: rows waiting in a lane are already bounded by that lane's queue, and
+ * counting them would let a few slow targets stop claims for every other target.
+ * <p>
+ * Rows of merchants that batch their webhooks are written as BATCHING and wait up to the
+ * merchant's window. A poll claims them per merchant and target once the oldest is due or, going
+ * by an in-memory count of inserts, once a full batch is waiting, and sends them as one envelope
+ * whose payload is the JSON array of the stored events, signed as a whole. The outcome applies to
+ * every row of the batch; failed rows go back to BATCHING and are regrouped on retry, once their
+ * backoff has elapsed (a full batch only pulls in rows that were never attempted). Rows
+ * parked by the circuit breaker are released one by one with their own signatures.
+ */
+@Component
+public class WebhookOutboxRelay implements InitializingBean, DisposableBean {
+
+    private static final Logger log = LoggerFactory.getLogger(WebhookOutboxRelay.class);
+
+    private final WebhookDeliveryRepository deliveries;
+    private final TransactionTemplate tx;
+    private final WebhookDispatcher dispatcher;
+    private final WebhookDeliveryCircuitCircuitBreaker circuitBreaker;
+    private final DeliveryMetrics deliveryMetrics;
+    private final ExecutorService executor;
+    private final ScheduledExecutorService scheduler;
+    private final StageLimiter stageLimiter;
+    private final WebhookTargetScheduler targetScheduler;
+    private final PipelineMetrics metrics;
+    private final MerchantCache merchantCache;
+    private final WebhookSigner signer;
+    private final IdGenerator ids;
+
+    @Value("${fiadopay.webhook.outbox.poll-interval-ms:500}") long pollIntervalMs;
+    @Value("${fiadopay.webhook.outbox.batch-size:50}") int batchSize;
+    @Value("${fiadopay.webhook.outbox.max-in-flight:200}") int maxInFlight;
+    @Value("${fiadopay.webhook.outbox.lease-ms:30000}") long leaseMs;
+    @Value("${fiadopay.webhook.outbox.max-attempts:5}") int maxAttempts;
+    @Value("${fiadopay.webhook.outbox.park-lease-ms:600000}") long parkLeaseMs;
+
+    private final AtomicBoolean polling = new AtomicBoolean();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private volatile ScheduledFuture<?> pollTask;
+
+    /** Merchant/target whose BATCHING rows go out together; {@code max} is the merchant's batch size. */
+    private record BatchKey(Long merchantId, String targetUrl, int max) {
+        static BatchKey of(WebhookDelivery d) { return new BatchKey(d.getMerchantId(), d.getTargetUrl(), d.getBatchMax()); }
+    }
+
+    // BATCHING rows inserted by this node and not yet claimed; approximate, the window bounds the wait anyway
+    private final Map<BatchKey, AtomicInteger> accumulating = new ConcurrentHashMap<>();
+
+    public WebhookOutboxRelay(WebhookDeliveryRepository deliveries,
+                              TransactionTemplate tx,
+                              WebhookDispatcher dispatcher,
+                              WebhookDeliveryCircuitCircuitBreaker circuitBreaker,
+                              DeliveryMetrics deliveryMetrics,
+                              ExecutorService fiadoExecutor,
+                              ScheduledExecutorService fiadoScheduler,
+                              StageLimiter stageLimiter,
+                              WebhookTargetScheduler targetScheduler,
+                              PipelineMetrics metrics,
+                              MerchantCache merchantCache,
+                              WebhookSigner signer,
+                              IdGenerator ids) {
+        this.deliveries = deliveries;
+        this.tx = tx;
+        this.dispatcher = dispatcher;
+        this.circuitBreaker = circuitBreaker;
+        this.deliveryMetrics = deliveryMetrics;
+        this.executor = fiadoExecutor;
+        this.scheduler = fiadoScheduler;
+        this.stageLimiter = stageLimiter;
+        this.targetScheduler = targetScheduler;
+        this.metrics = metrics;
+        this.merchantCache = merchantCache;
+        this.signer = signer;
+        this.ids = ids;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        targetScheduler.start(this::execute);
+        pollTask = scheduler.scheduleWithFixedDelay(this::poll, pollIntervalMs, pollIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void destroy() {
+        // stop polling before the EntityManagerFactory goes away
+        if (pollTask != null) pollTask.cancel(false);
+    }
+
+    /** Asks for an immediate poll instead of waiting for the next tick (e.g. right after an insert). */
+    public void wakeUp() {
+        if (!polling.get() && pollTask != null && !pollTask.isCancelled()) scheduler.execute(this::poll);
+    }
+
+    /** Counts freshly inserted BATCHING rows so a full batch is sent without waiting for its window. */
+    public void accumulated(List<WebhookDelivery> rows) {
+        for (var d : rows) {
+            if (d.getStatus() != WebhookDelivery.Status.BATCHING) continue;
+            accumulating.computeIfAbsent(BatchKey.of(d), k -> new AtomicInteger()).incrementAndGet();
+        }
+    }
+
+    public int getInFlight() { return inFlight.get(); }
+
+    void poll() {
+        if (!polling.compareAndSet(false, true)) return;
+        try {
+            while (true) {
+                int room = Math.min(batchSize, maxInFlight - inFlight.get());
+                if (room <= 0) break;
+                var batch = claim(room);
+                batch.park().forEach(circuitBreaker::park);
+                batch.ready().forEach(this::dispatch);
+                if (batch.claimed() < room) break;
+            }
+            while (true) {
+                int room = Math.min(batchSize, maxInFlight - inFlight.get());
+                if (room <= 0) break;
+                var batches = claimBatches(room);
+                batches.park().forEach(circuitBreaker::park);
+                batches.ready().forEach(this::dispatch);
+                if (batches.claimed() < room) break;
+            }
+            // the lane's token bucket paces a recovering target; parked rows just keep its queue filled
+            for (var d : circuitBreaker.releaseParked(targetScheduler::remainingCapacity)) dispatch(d);
+        } catch (Exception e) {
+            log.warn("Webhook outbox poll failed", e);
+        } finally {
+            polling.set(false);
+        }
+    }
+
+    /** {@code park} is handed to the circuit breaker only after the claim committed. */
+    private record Claim(int claimed, List<WebhookDelivery> ready, List<WebhookDelivery> park) {}
+
+    private Claim claim(int limit) {
+        return tx.execute(status -> {
+            var now = Instant.now();
+            var due = deliveries.findDueForUpdate(WebhookDelivery.Status.PENDING, now, Limit.of(limit));
+            var leaseUntil = now.plusMillis(leaseMs);
+            var parkedUntil = now.plusMillis(parkLeaseMs);
+            var deferredUntil = now.plusMillis(pollIntervalMs);
+            var ready = new ArrayList<WebhookDelivery>(due.size());
+            var park = new ArrayList<WebhookDelivery>();
+            var capacity = new HashMap<String, Integer>();
+            var parkRoom = new HashMap<String, Integer>(); // parking happens after commit, so count this claim's share here
+            for (var d : due) {
+                var target = d.getTargetUrl();
+                // queue behind already parked rows so a recovering target is not hit all at once
+                if (circuitBreaker.hasParked(target) || !circuitBreaker.isClosed(target)) {
+                    if (parkRoom.computeIfAbsent(target, circuitBreaker::parkRoom) > 0) {
+                        parkRoom.merge(target, -1, Integer::sum);
+                        // the longer lease keeps the row from being re-claimed while it waits in memory
+                        d.setNextAttemptAt(parkedUntil);
+                        park.add(d);
+                    } else {
+                        d.setNextAttemptAt(backlogUntil(now, target));
+                    }
+                } else if (capacity.computeIfAbsent(target, targetScheduler::remainingCapacity) <= 0) {
+                    // target's bulkhead is full: leave the row to a later poll
+                    d.setNextAttemptAt(deferredUntil);
+                } else {
+                    capacity.merge(target, -1, Integer::sum);
+                    d.setNextAttemptAt(leaseUntil);
+                    ready.add(d);
+                }
+            }
+            deliveries.saveAll(due);
+            return new Claim(due.size(), ready, park);
+        });
+    }
+
+    /** When a row that found its target's parking full is looked at again: after the cooldown, or next poll. */
+    private Instant backlogUntil(Instant now, String target) {
+        return now.plusMillis(Math.max(pollIntervalMs, circuitBreaker.getCooldownMs(target)));
+    }
+
+    /** Like {@link #claim} but per merchant and target, each ready group becoming one envelope. */
+    private Claim claimBatches(int limit) {
+        return tx.execute(status -> {
+            var now = Instant.now();
+            // full batches first, then those whose window has elapsed
+            var keys = new LinkedHashSet<BatchKey>();
+            accumulating.forEach((k, n) -> { if (n.get() >= k.max()) keys.add(k); });
+            for (var d : deliveries.findDueForUpdate(WebhookDelivery.Status.BATCHING, now, Limit.of(limit))) {
+                keys.add(BatchKey.of(d));
+            }
+            var leaseUntil = now.plusMillis(leaseMs);
+            var parkedUntil = now.plusMillis(parkLeaseMs);
+            var deferredUntil = now.plusMillis(pollIntervalMs);
+            var ready = new ArrayList<WebhookDelivery>();
+            var park = new ArrayList<WebhookDelivery>();
+            var capacity = new HashMap<String, Integer>();
+            var parkRoom = new HashMap<String, Integer>();
+            int claimed = 0;
+            for (var key : keys) {
+                if (claimed >= limit) break;
+                var target = key.targetUrl();
+                var rows = deliveries.findBatchForUpdate(WebhookDelivery.Status.BATCHING, key.merchantId(), target,
+                        now, Limit.of(key.max()));
+                if (rows.isEmpty()) {
+                    accumulating.remove(key);
+                    continue;
+                }
+                if (circuitBreaker.hasParked(target) || !circuitBreaker.isClosed(target)) {
+                    if (parkRoom.computeIfAbsent(target, circuitBreaker::parkRoom) < rows.size()) {
+                        // not counted as claimed, like a full bulkhead below
+                        for (var d : rows) d.setNextAttemptAt(backlogUntil(now, target));
+                        deliveries.saveAll(rows);
+                        continue;
+                    }
+                    parkRoom.merge(target, -rows.size(), Integer::sum);
+                    for (var d : rows) {
+                        d.setStatus(WebhookDelivery.Status.PENDING);
+                        d.setNextAttemptAt(parkedUntil);
+                        park.add(d);
+                    }
+                } else if (capacity.computeIfAbsent(target, targetScheduler::remainingCapacity) <= 0) {
+                    // not counted as claimed: the batch stays whole for a later poll
+                    for (var d : rows) d.setNextAttemptAt(deferredUntil);
+                    deliveries.saveAll(rows);
+                    continue;
+                } else {
+                    capacity.merge(target, -1, Integer::sum);
+                    for (var d : rows) {
+                        d.setStatus(WebhookDelivery.Status.PENDING);
+                        d.setNextAttemptAt(leaseUntil);
+                    }
+                    ready.add(envelope(key, rows));
+                }
+                claimed++;
+                deliveries.saveAll(rows);
+                accumulating.computeIfPresent(key, (k, n) -> n.addAndGet(-rows.size()) > 0 ? n : null);
+            }
+            return new Claim(claimed, ready, park);
+        });
+    }
+
+    /** One request for the whole batch: the stored events as a JSON array, signed with the merchant's key. */
+    private WebhookDelivery envelope(BatchKey key, List<WebhookDelivery> rows) {
+        int size = rows.size() + 1;
+        for (var d : rows) size += d.getPayload().length;
+        var body = new byte[size];
+        body[0] = '[';
+        int pos = 1;
+        for (var d : rows) {
+            if (pos > 1) body[pos++] = ',';
+            System.arraycopy(d.getPayload(), 0, body, pos, d.getPayload().length);
+            pos += d.getPayload().length;
+        }
+        body[pos] = ']';
+        var signature = signer.sign(merchantCache.get(key.merchantId()).orElse(null), body);
+        return WebhookDelivery.builder()
+                .eventId("bat_" + ids.next())
+                .eventType("event.batch") // may mix payment.updated and refund.updated events
+                .merchantId(key.merchantId())
+                .targetUrl(key.targetUrl())
+                .signature(signature.value())
+                .signatureKeyId(signature.keyId())
+                .payload(body)
+                .status(WebhookDelivery.Status.PENDING)
+                .batchMax(key.max())
+                .batch(rows)
+                .build();
+    }
+
+    private void dispatch(WebhookDelivery d) {
+        targetScheduler.submit(d);
+    }
+
+    /** Called by the target scheduler once the delivery has passed its target's bulkhead. */
+    private void execute(WebhookDelivery d) {
+        inFlight.incrementAndGet();
+        try {
+            executor.execute(() -> deliver(d));
+        } catch (RuntimeException e) {
+            done(d);
+            log.warn("Webhook delivery {} could not be dispatched", d.getId(), e);
+        }
+    }
+
+    private void deliver(WebhookDelivery d) {
+        try {
+            deliveryMetrics.incAttempt();
+            long sentAt = System.nanoTime();
+            dispatcher.send(d).whenCompleteAsync((status, err) -> onResult(d, status, err, sentAt), executor);
+        } catch (RuntimeException e) {
+            done(d);
+            log.warn("Webhook delivery {} could not be dispatched", d.getId(), e);
+        }
+    }
+
+    private void done(WebhookDelivery d) {
+        inFlight.decrementAndGet();
+        targetScheduler.release(d.getTargetUrl());
+    }
+
+    private void onResult(WebhookDelivery d, Integer status, Throwable err, long sentAt) {
+        try {
+            var target = d.getTargetUrl();
+            var now = Instant.now();
+            boolean delivered = err == null && status >= 200 && status < 300;
+            deliveryMetrics.recordAttempt(System.nanoTime() - sentAt, delivered);
+
+            if (delivered) {
+                circuitBreaker.recordSuccess(target);
+                deliveryMetrics.incSuccess();
+            } else {
+                circuitBreaker.recordFailure(target);
+                deliveryMetrics.incFailure();
+            }
+            // a batch succeeds or fails as a whole; each of its rows keeps its own attempt count
+            var rows = d.isBatch() ? d.getBatch() : List.of(d);
+            for (var row : rows) recordOutcome(row, delivered, now);
+            var save = metrics.save(Save.WEBHOOK_RESULT);
+            stageLimiter.run(StageLimiter.Stage.WEBHOOK, () -> save.record(() -> deliveries.saveAll(rows)));
+        } catch (RuntimeException e) {
+            // the lease expires and the row is claimed again
+            log.warn("Could not record outcome of webhook delivery {}", d.getId(), e);
+        } finally {
+            done(d);
+        }
+    }
+
+    private void recordOutcome(WebhookDelivery d, boolean delivered, Instant now) {
+        d.setAttempts(d.getAttempts() + 1);
+        d.setLastAttemptAt(now);
+        d.setDelivered(delivered);
+        if (delivered) {
+            d.setStatus(WebhookDelivery.Status.DELIVERED);
+        } else if (d.getAttempts() < maxAttempts) {
+            long backoff = (long) Math.pow(2, d.getAttempts()) * 1000L; // exponential backoff
+            d.setNextAttemptAt(now.plusMillis(backoff));
+            if (d.getBatchMax() != null) d.setStatus(WebhookDelivery.Status.BATCHING); // regrouped on retry
+        } else {
+            d.setStatus(WebhookDelivery.Status.FAILED);
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package edu.ucsal.fiadopay.service;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * HMAC-SHA256 signer for webhook payloads. Keys are initialized once; signing borrows an
+ * already-initialized {@link Mac} cloned from the key's prototype, so the per-event cost is
+ * just the MAC computation.
+ * <p>
+ * Global keys are versioned ({@code fiadopay.webhook.signing.keys}, signing with
+ * {@code active-key}); a merchant with its own secret is signed with key id {@code m<version>}.
+ * The key id travels in the {@code X-Signature-Version} header.
+ */
+@Component
+@ConfigurationProperties(prefix = "fiadopay.webhook.signing")
+public class WebhookSigner {
+
+    private static final String ALGORITHM = "HmacSHA256";
+
+    public record Signature(String keyId, String value) {}
+
+    private final String legacySecret;
+    private Map<String, String> keys = new HashMap<>();
+    private String activeKey = "v1";
+
+    // key id ("v1", or "m:<merchantId>:<version>") -> pool of initialized Macs
+    private final Map<String, MacPool> pools = new ConcurrentHashMap<>();
+
+    public WebhookSigner(@Value("${fiadopay.webhook-secret}") String legacySecret) {
+        this.legacySecret = legacySecret;
+    }
+
+    public Map<String, String> getKeys() { return keys; }
+    public void setKeys(Map<String, String> keys) { this.keys = keys; pools.clear(); }
+    public String getActiveKey() { return activeKey; }
+    public void setActiveKey(String activeKey) { this.activeKey = activeKey; }
+
+    /** Signs with the merchant's own secret when it has one, otherwise with the active global key. */
+    public Signature sign(MerchantSnapshot merchant, byte[] payload) {
+        return sign(merchant, ByteBuffer.wrap(payload));
+    }
+
+    public Signature sign(MerchantSnapshot merchant, ByteBuffer payload) {
+        if (merchant != null && merchant.webhookSecret() != null) {
+            var version = merchant.webhookSecretVersion() == null ? 1 : merchant.webhookSecretVersion();
+            var pool = pools.computeIfAbsent("m:" + merchant.id() + ":" + version,
+                    k -> new MacPool(merchant.webhookSecret()));
+            return new Signature("m" + version, pool.sign(payload));
+        }
+        return sign(activeKey, payload);
+    }
+
+    public Signature sign(String keyId, ByteBuffer payload) {
+        return new Signature(keyId, pool(keyId).sign(payload));
+    }
+
+    /** Drops cached keys of a merchant whose secret was rotated. */
+    public void evictMerchant(Long merchantId) {
+        var prefix = "m:" + merchantId + ":";
+        pools.keySet().removeIf(k -> k.startsWith(prefix));
+    }
+
+    private MacPool pool(String keyId) {
+        return pools.computeIfAbsent(keyId, k -> {
+            var secret = keys.get(k);
+            if (secret == null && keys.isEmpty() && "v1".equals(k)) secret = legacySecret;
+            if (secret == null) throw new IllegalStateException("Unknown webhook signing key: " + k);
+            return new MacPool(secret);
+        });
+    }
+
+    /**
+     * Lock-free pool instead of a ThreadLocal: with virtual threads a per-thread Mac would be
+     * re-created for almost every event.
+     */
+    private static final class MacPool {
+        private final Mac prototype;
+        private final Queue<Mac> idle = new ConcurrentLinkedQueue<>();
+
+        MacPool(String secret) {
+            try {
+                prototype = Mac.getInstance(ALGORITHM);
+                prototype.init(new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), ALGORITHM));
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException("Cannot initialize " + ALGORITHM, e);
+            }
+        }
+
+        String sign(ByteBuffer payload) {
+            var mac = idle.poll();
+            if (mac == null) mac = newMac();
+            mac.update(payload.duplicate());
+            var digest = mac.doFinal(); // also resets the Mac; on failure it is simply not returned
+            idle.offer(mac);
+            return Base64.getEncoder().encodeToString(digest);
+        }
+
+        private Mac newMac() {
+            try {
+                return (Mac) prototype.clone();
+            } catch (CloneNotSupportedException e) {
+                throw new IllegalStateException(ALGORITHM + " provider does not support clone()", e);
+            }
+        }
+    }
+}
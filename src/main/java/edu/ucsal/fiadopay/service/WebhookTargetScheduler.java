@@ -0,0 +1,192 @@
+package edu.ucsal.fiadopay.service;
+
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import edu.ucsal.fiadopay.domain.WebhookDelivery;
+
+/**
+ * Per-target bulkheads for webhook delivery. Each target URL gets its own lane with a bounded
+ * queue, a token bucket and a cap on concurrent requests; lanes with work are served round-robin,
+ * one delivery per turn, so a slow or noisy target cannot starve the others.
+ * <p>
+ * A single thread drains at a time (whoever submits or completes a delivery); a lane that is
+ * only waiting for tokens is re-drained by a one-shot task on the scheduler.
+ */
+@Component
+public class WebhookTargetScheduler {
+
+    private record Queued(WebhookDelivery delivery, long enqueuedAt) {}
+
+    private final class Lane {
+        final String target;
+        final Queue<Queued> queue = new ConcurrentLinkedQueue<>();
+        final AtomicInteger depth = new AtomicInteger();
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicBoolean inRing = new AtomicBoolean();
+        final LongAdder dispatched = new LongAdder();
+        final LongAdder waitNanos = new LongAdder();
+        volatile long lastWaitNanos;
+
+        // token bucket; only touched by the current drainer
+        double tokens = burst;
+        long refilledAt = System.nanoTime();
+
+        Lane(String target) { this.target = target; }
+
+        boolean tryTakeToken(long now) {
+            tokens = Math.min(burst, tokens + (now - refilledAt) * ratePerNano);
+            refilledAt = now;
+            if (tokens < 1) return false;
+            tokens -= 1;
+            return true;
+        }
+
+        long nanosUntilToken() {
+            return (long) Math.ceil((1 - tokens) / ratePerNano);
+        }
+    }
+
+    private final Map<String, Lane> lanes = new ConcurrentHashMap<>();
+    private final Queue<Lane> ring = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean draining = new AtomicBoolean();
+    private final AtomicBoolean redrain = new AtomicBoolean();
+    private final AtomicBoolean timerArmed = new AtomicBoolean();
+    private final ScheduledExecutorService scheduler;
+    private final double ratePerNano;
+    private final double burst;
+    private final int maxInFlight;
+    private final int maxQueued;
+    private volatile Consumer<WebhookDelivery> sink;
+
+    public WebhookTargetScheduler(ScheduledExecutorService fiadoScheduler,
+                                  @Value("${fiadopay.webhook.target.rate-per-second:50}") double ratePerSecond,
+                                  @Value("${fiadopay.webhook.target.burst:20}") int burst,
+                                  @Value("${fiadopay.webhook.target.max-in-flight:8}") int maxInFlight,
+                                  @Value("${fiadopay.webhook.target.max-queued:100}") int maxQueued) {
+        this.scheduler = fiadoScheduler;
+        this.ratePerNano = ratePerSecond / TimeUnit.SECONDS.toNanos(1);
+        this.burst = Math.max(1, burst);
+        this.maxInFlight = maxInFlight;
+        this.maxQueued = maxQueued;
+    }
+
+    /** Sets where admitted deliveries go; must be called before the first {@link #submit}. */
+    public void start(Consumer<WebhookDelivery> sink) {
+        this.sink = sink;
+    }
+
+    /** How many more deliveries the target's queue accepts right now. */
+    public int remainingCapacity(String target) {
+        var lane = lanes.get(target);
+        return lane == null ? maxQueued : Math.max(0, maxQueued - lane.depth.get());
+    }
+
+    public void submit(WebhookDelivery d) {
+        var lane = lanes.computeIfAbsent(d.getTargetUrl(), Lane::new);
+        lane.queue.offer(new Queued(d, System.nanoTime()));
+        lane.depth.incrementAndGet();
+        activate(lane);
+        drain();
+    }
+
+    /** Called when a delivery handed to the sink has finished, successfully or not. */
+    public void release(String target) {
+        var lane = lanes.get(target);
+        if (lane == null) return;
+        lane.inFlight.decrementAndGet();
+        if (lane.depth.get() > 0) activate(lane);
+        drain();
+    }
+
+    private void activate(Lane lane) {
+        if (lane.inRing.compareAndSet(false, true)) ring.offer(lane);
+    }
+
+    private void drain() {
+        redrain.set(true);
+        while (redrain.get() && draining.compareAndSet(false, true)) {
+            redrain.set(false);
+            try {
+                drainOnce();
+            } finally {
+                draining.set(false);
+            }
+        }
+    }
+
+    private void drainOnce() {
+        var blocked = new ArrayList<Lane>();
+        long waitForTokens = Long.MAX_VALUE;
+        Lane lane;
+        while ((lane = ring.poll()) != null) {
+            if (lane.depth.get() == 0) {
+                lane.inRing.set(false);
+                // an item may have been queued after the depth check
+                if (lane.depth.get() > 0) activate(lane);
+                continue;
+            }
+            if (lane.inFlight.get() >= maxInFlight) {
+                // re-activated by release()
+                lane.inRing.set(false);
+                if (lane.inFlight.get() < maxInFlight) activate(lane);
+                continue;
+            }
+            long now = System.nanoTime();
+            if (!lane.tryTakeToken(now)) {
+                waitForTokens = Math.min(waitForTokens, lane.nanosUntilToken());
+                blocked.add(lane);
+                continue;
+            }
+            var q = lane.queue.poll();
+            lane.depth.decrementAndGet();
+            lane.inFlight.incrementAndGet();
+            lane.lastWaitNanos = now - q.enqueuedAt();
+            lane.waitNanos.add(lane.lastWaitNanos);
+            lane.dispatched.increment();
+            ring.offer(lane); // back of the line: one delivery per lane per turn
+            sink.accept(q.delivery());
+        }
+        ring.addAll(blocked);
+        if (waitForTokens != Long.MAX_VALUE && timerArmed.compareAndSet(false, true)) {
+            scheduler.schedule(() -> {
+                timerArmed.set(false);
+                drain();
+            }, Math.max(1L, waitForTokens), TimeUnit.NANOSECONDS);
+        }
+    }
+
+    public int getQueued() {
+        int n = 0;
+        for (var lane : lanes.values()) n += lane.depth.get();
+        return n;
+    }
+
+    /** Queue depth, in-flight requests and wait time before dispatch, per target. */
+    public Map<String, Map<String, Object>> snapshot() {
+        var out = new TreeMap<String, Map<String, Object>>();
+        lanes.forEach((target, lane) -> {
+            long n = lane.dispatched.sum();
+            out.put(target, Map.of(
+                    "queued", lane.depth.get(),
+                    "inFlight", lane.inFlight.get(),
+                    "dispatched", n,
+                    "avgWaitMs", n == 0 ? 0.0 : lane.waitNanos.sum() / 1e6 / n,
+                    "lastWaitMs", lane.lastWaitNanos / 1e6));
+        });
+        return out;
+    }
+}
@@ -0,0 +1,40 @@
+-- payment and refund tables on the extra shards (fiadopay.sharding.shards); shard 0 is managed by Hibernate
+create table if not exists payment (
+    id varchar(255) not null,
+    amount numeric(19,2) not null,
+    created_at timestamp(6) with time zone not null,
+    currency varchar(10) not null,
+    idempotency_key varchar(64),
+    installments integer not null,
+    merchant_id bigint not null,
+    metadata_order_id varchar(255),
+    method varchar(20) not null,
+    monthly_interest float(53),
+    refunded_amount numeric(19,2) default 0 not null,
+    refunding_amount numeric(19,2) default 0 not null,
+    status varchar(20) not null,
+    total_with_interest numeric(19,2) not null,
+    updated_at timestamp(6) with time zone not null,
+    primary key (id),
+    constraint uk_payment_merchant_idempotency unique (merchant_id, idempotency_key)
+);
+-- shards created before refunds existed
+alter table payment add column if not exists refunded_amount numeric(19,2) default 0 not null;
+alter table payment add column if not exists refunding_amount numeric(19,2) default 0 not null;
+create index if not exists idx_payment_status on payment (status);
+create index if not exists idx_payment_merchant_created on payment (merchant_id, created_at, id);
+create index if not exists idx_payment_merchant_status_created on payment (merchant_id, status, created_at, id);
+create table if not exists refund (
+    id varchar(255) not null,
+    amount numeric(19,2) not null,
+    created_at timestamp(6) with time zone not null,
+    idempotency_key varchar(64),
+    merchant_id bigint not null,
+    payment_id varchar(255) not null,
+    status varchar(20) not null,
+    updated_at timestamp(6) with time zone not null,
+    primary key (id),
+    constraint uk_refund_merchant_idempotency unique (merchant_id, idempotency_key)
+);
+create index if not exists idx_refund_payment on refund (payment_id, created_at);
+create index if not exists idx_refund_status on refund (status);